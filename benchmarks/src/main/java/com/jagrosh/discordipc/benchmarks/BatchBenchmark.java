@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.benchmarks;
+
+import com.jagrosh.discordipc.IPCClient;
+import com.jagrosh.discordipc.IPCClient.Event;
+import com.jagrosh.discordipc.entities.RichPresence;
+import com.jagrosh.discordipc.stub.StubDiscordServer;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares sending a Rich Presence update and three subscriptions as separate
+ * commands against sending them as one {@link IPCClient.Batch}.<p>
+ * <p>
+ * Separate commands go out in one write only if they queue up before the writer
+ * gets to them, while a batch is always handed to the writer whole.<p>
+ * <p>
+ * A client connects to a local {@link StubDiscordServer} and repeats the four
+ * commands, waiting for all four answers each round. Printed per mode are the
+ * p50 and p99 round trip of a round, and the write system calls per round. The
+ * latter counts the whole process, so it includes the stub server's four answers
+ * in both modes, and is only available where procfs is.<p>
+ * <p>
+ * Usage: {@code BatchBenchmark [rounds]}, which defaults to 20,000 rounds after
+ * as many rounds of warmup.
+ */
+public class BatchBenchmark {
+    private static final Event[] EVENTS = {Event.ACTIVITY_JOIN, Event.ACTIVITY_SPECTATE, Event.ACTIVITY_JOIN_REQUEST};
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        RichPresence presence = new RichPresence.Builder().setState("Benchmarking").setDetails("Batching").build();
+
+        try (StubDiscordServer server = StubDiscordServer.start()) {
+            System.setProperty("discordipc.dir", server.getDirectory().toString());
+            IPCClient client = new IPCClient(1);
+            client.setNumericNonces(true);
+            client.connect();
+            try {
+                // warm both paths up before measuring either
+                run(client, presence, rounds, false);
+                run(client, presence, rounds, true);
+                System.out.printf("%-10s %8s %10s %10s %14s%n", "mode", "rounds", "p50 us", "p99 us", "writes/round");
+                print("separate", rounds, client, presence, false);
+                print("batched", rounds, client, presence, true);
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    private static void print(String mode, int rounds, IPCClient client, RichPresence presence, boolean batched) throws Exception {
+        long writes = Footprint.writeSyscalls();
+        long[] nanos = run(client, presence, rounds, batched);
+        long written = Footprint.writeSyscalls() - writes;
+        Arrays.sort(nanos);
+        System.out.printf("%-10s %8d %10.1f %10.1f %14s%n", mode, rounds,
+                nanos[rounds / 2] / 1e3, nanos[(int) (rounds * 0.99)] / 1e3,
+                writes < 0 ? "n/a" : String.format("%.2f", written / (double) rounds));
+    }
+
+    private static long[] run(IPCClient client, RichPresence presence, int rounds, boolean batched) throws Exception {
+        long[] nanos = new long[rounds];
+        CompletableFuture<?>[] acks = new CompletableFuture[EVENTS.length + 1];
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            if (batched) {
+                IPCClient.Batch batch = client.batch();
+                acks[0] = batch.sendRichPresenceAsync(presence);
+                for (int i = 0; i < EVENTS.length; i++)
+                    acks[i + 1] = batch.subscribeAsync(EVENTS[i]);
+                batch.flush();
+            } else {
+                acks[0] = client.sendRichPresenceAsync(presence);
+                for (int i = 0; i < EVENTS.length; i++)
+                    acks[i + 1] = client.subscribeAsync(EVENTS[i]);
+            }
+            CompletableFuture.allOf(acks).get(10, TimeUnit.SECONDS);
+            nanos[r] = System.nanoTime() - start;
+        }
+        return nanos;
+    }
+}
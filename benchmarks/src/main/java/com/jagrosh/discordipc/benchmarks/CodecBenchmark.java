@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.benchmarks;
+
+import com.google.gson.JsonObject;
+import com.jagrosh.discordipc.entities.Packet;
+import com.jagrosh.discordipc.entities.RichPresence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding Rich Presence updates and decoding the frames Discord answers with.<p>
+ * <p>
+ * {@code toJson} builds the {@link JsonObject} tree. {@code toJsonBytes} streams the
+ * UTF-8 the pipe actually sends for a newly built presence, which is then kept, so
+ * {@code toJsonBytesCached} is the cost of every later send of the same presence.
+ * {@code packetToBytes} frames a SET_ACTIVITY payload.
+ * The decode benchmarks repeat what {@code Pipe.poll()} does with a frame once it
+ * has arrived in its reused buffers: read the little endian header, copy the payload
+ * out into a {@link Packet}, and route it on its {@code evt} and {@code nonce} as
+ * the client does, without parsing the rest.<p>
+ * <p>
+ * Run through {@link Benchmarks} to see allocations per operation alongside the times.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+    private static final String ACK = "{\"cmd\":\"SET_ACTIVITY\",\"data\":{\"state\":\"West of House\","
+            + "\"details\":\"Frustration level: Over 9000\",\"name\":\"Benchmark\",\"application_id\":\"345229890980937739\","
+            + "\"type\":0},\"evt\":null,\"nonce\":\"1234\"}";
+    private static final String DISPATCH = "{\"cmd\":\"DISPATCH\",\"data\":{\"secret\":\"xyzzy\"},"
+            + "\"evt\":\"ACTIVITY_JOIN\",\"nonce\":null}";
+
+    private RichPresence.Builder builder;
+    private RichPresence presence;
+    private Packet setActivity;
+    private ByteBuffer ackFrame;
+    private ByteBuffer dispatchFrame;
+    private final ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer payload = ByteBuffer.allocate(16 * 1024);
+
+    @Setup
+    public void setup() {
+        builder = new RichPresence.Builder()
+                .setState("West of House")
+                .setDetails("Frustration level: Over 9000")
+                .setStartTimestamp(1_500_000_000L)
+                .setLargeImage("canary-large", "Discord Canary")
+                .setSmallImage("ptb-small", "Discord PTB")
+                .setParty("party1234", 1, 6)
+                .setButtons(new RichPresence.Button("Website", "https://example.com"));
+        presence = builder.build();
+        JsonObject args = new JsonObject();
+        args.addProperty("pid", 1234);
+        args.add("activity", presence.toJson());
+        JsonObject json = new JsonObject();
+        json.addProperty("cmd", "SET_ACTIVITY");
+        json.add("args", args);
+        json.addProperty("nonce", "1234");
+        setActivity = new Packet(Packet.OpCode.FRAME, json.toString().getBytes(StandardCharsets.UTF_8));
+        ackFrame = ByteBuffer.wrap(new Packet(Packet.OpCode.FRAME, ACK.getBytes(StandardCharsets.UTF_8)).toBytes());
+        dispatchFrame = ByteBuffer.wrap(new Packet(Packet.OpCode.FRAME, DISPATCH.getBytes(StandardCharsets.UTF_8)).toBytes());
+    }
+
+    @Benchmark
+    public JsonObject toJson() {
+        return presence.toJson();
+    }
+
+    @Benchmark
+    public byte[] toJsonBytes() {
+        return builder.build().toJsonBytes();
+    }
+
+    @Benchmark
+    public byte[] toJsonBytesCached() {
+        return presence.toJsonBytes();
+    }
+
+    @Benchmark
+    public byte[] packetToBytes() {
+        return setActivity.toBytes();
+    }
+
+    @Benchmark
+    public void decodeAck(Blackhole bh) {
+        Packet p = decode(ackFrame);
+        bh.consume(p.getEventName());
+        bh.consume(p.getNonceAsLong());
+    }
+
+    @Benchmark
+    public void decodeDispatch(Blackhole bh) {
+        Packet p = decode(dispatchFrame);
+        bh.consume(p.getEventName());
+        bh.consume(p.getCommand());
+    }
+
+    private Packet decode(ByteBuffer frame) {
+        frame.clear();
+        header.clear();
+        header.put(frame.slice().limit(header.capacity()));
+        header.flip();
+        Packet.OpCode op = Packet.OpCode.fromOrdinal(header.getInt());
+        int length = header.getInt();
+        frame.position(header.capacity());
+        payload.clear().limit(length);
+        payload.put(frame);
+        payload.flip();
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        return new Packet(op, bytes);
+    }
+}
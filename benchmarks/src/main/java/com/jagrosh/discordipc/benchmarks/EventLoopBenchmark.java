@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.benchmarks;
+
+import com.jagrosh.discordipc.IPCClient;
+import com.jagrosh.discordipc.IPCEventLoop;
+import com.jagrosh.discordipc.stub.StubDiscordServer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the footprint of keeping many {@link IPCClient IPCClients} connected
+ * with a reading thread each against sharing one {@link IPCEventLoop}.<p>
+ * <p>
+ * Every client connects to a local {@link StubDiscordServer}. Once all of them
+ * are connected, the live thread count, the heap in use after a GC and the
+ * resident set size of the process are printed for each mode.<p>
+ * <p>
+ * Usage: {@code EventLoopBenchmark [loopThreads] [clientCount...]}, which
+ * defaults to one loop thread and 1, 100 and 1,000 clients.
+ */
+public class EventLoopBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int loopThreads = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int[] counts = {1, 100, 1000};
+        if (args.length > 1) {
+            counts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++)
+                counts[i - 1] = Integer.parseInt(args[i]);
+        }
+
+        try (StubDiscordServer server = StubDiscordServer.start()) {
+            System.setProperty("discordipc.dir", server.getDirectory().toString());
+            System.out.printf("%-14s %8s %8s %10s %10s%n", "mode", "clients", "threads", "heap MiB", "rss MiB");
+            for (int count : counts) {
+                run("thread/client", count, null);
+                try (IPCEventLoop loop = new IPCEventLoop(loopThreads)) {
+                    run("event loop x" + loopThreads, count, loop);
+                }
+            }
+        }
+    }
+
+    private static void run(String mode, int count, IPCEventLoop loop) throws Exception {
+        List<IPCClient> clients = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                IPCClient client = new IPCClient(i + 1);
+                client.setEventLoop(loop);
+                client.connect();
+                clients.add(client);
+            }
+            Footprint.settle();
+            System.out.printf("%-14s %8d %8d %10.1f %10s%n", mode, count,
+                    Footprint.threads(), Footprint.usedHeapMiB(), Footprint.rssMiB());
+        } finally {
+            for (IPCClient client : clients)
+                client.close();
+            Footprint.settle();
+        }
+    }
+}
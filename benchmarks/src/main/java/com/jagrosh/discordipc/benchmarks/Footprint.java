@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.benchmarks;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Measures how much of the machine the benchmarking process is holding on to.
+ */
+final class Footprint {
+
+    private Footprint() {
+    }
+
+    /**
+     * Runs a few GCs and gives threads that are winding down time to exit.
+     */
+    static void settle() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+    }
+
+    /**
+     * Gets the number of live platform threads, which leaves out virtual threads.
+     */
+    static int threads() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+
+    static double usedHeapMiB() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / 1048576.0;
+    }
+
+    /**
+     * Reads the resident set size from procfs, which includes the thread stacks
+     * that the heap numbers leave out.
+     */
+    static String rssMiB() {
+        Path status = Paths.get("/proc/self/status");
+        try {
+            for (String line : Files.readAllLines(status)) {
+                if (line.startsWith("VmRSS:"))
+                    return String.format("%.1f", Long.parseLong(line.replaceAll("\\D", "")) / 1024.0);
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+        return "n/a";
+    }
+
+    /**
+     * Reads the number of write system calls the process has made from procfs.
+     *
+     * @return The count, or {@code -1} where procfs doesn't provide it.
+     */
+    static long writeSyscalls() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/io"))) {
+                if (line.startsWith("syscw:"))
+                    return Long.parseLong(line.substring(6).trim());
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.benchmarks;
+
+import com.google.gson.JsonObject;
+import com.jagrosh.discordipc.IPCClient;
+import com.jagrosh.discordipc.IPCListener;
+import com.jagrosh.discordipc.entities.RichPresence;
+import com.jagrosh.discordipc.entities.User;
+import com.jagrosh.discordipc.stub.StubDiscordServer;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives many {@link IPCClient IPCClients} sending Rich Presence updates at a
+ * steady rate against a local {@link StubDiscordServer}, optionally while the
+ * server floods them with events.<p>
+ * <p>
+ * Each client sends its updates at a fixed rate, staggered so that the clients
+ * don't all send at once. After a warm up of a fifth of the run, printed are the
+ * frames per second sent and received, the percentiles of the time from sending an
+ * update to its acknowledgement, the requests that failed, the heap allocation rate
+ * and the live thread count.<p>
+ * <p>
+ * In event storm mode the server also sends {@code ACTIVITY_JOIN_REQUEST} DISPATCH
+ * events at the given rate to every client, each of which is read, parsed and handed
+ * to a listener by the client's read loop, and the rate they were handled at is printed too.<p>
+ * <p>
+ * Usage: {@code LoadHarness [clients] [updatesPerSecond] [seconds] [stormEventsPerSecond]},
+ * which defaults to 100 clients sending 10 updates per second each for 30 seconds without a storm.
+ * The rates are per client.
+ */
+public class LoadHarness {
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int storm = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        if (clients < 1 || rate < 1 || seconds < 1 || storm < 0)
+            throw new IllegalArgumentException("Usage: LoadHarness [clients] [updatesPerSecond] [seconds] [stormEventsPerSecond]");
+
+        try (StubDiscordServer server = StubDiscordServer.start()) {
+            System.setProperty("discordipc.dir", server.getDirectory().toString());
+            new LoadHarness(server, clients, rate, seconds, storm).run();
+        }
+    }
+
+    private final StubDiscordServer server;
+    private final int clientCount;
+    private final int rate;
+    private final int seconds;
+    private final int storm;
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder events = new LongAdder();
+    private final Samples latencies;
+    private volatile boolean measuring;
+
+    private LoadHarness(StubDiscordServer server, int clientCount, int rate, int seconds, int storm) {
+        this.server = server;
+        this.clientCount = clientCount;
+        this.rate = rate;
+        this.seconds = seconds;
+        this.storm = storm;
+        this.latencies = new Samples((int) Math.min(Integer.MAX_VALUE - 8, 2L * clientCount * rate * seconds));
+    }
+
+    private void run() throws Exception {
+        List<IPCClient> clients = new ArrayList<>(clientCount);
+        ScheduledExecutorService senders = Executors.newScheduledThreadPool(Math.min(4, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread thread = new Thread(r, "LoadHarness-Sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (int i = 0; i < clientCount; i++) {
+                IPCClient client = new IPCClient(i + 1);
+                client.setListener(new IPCListener() {
+                    @Override
+                    public void onActivityJoinRequest(IPCClient client, String secret, User user) {
+                        events.increment();
+                    }
+                });
+                client.connect();
+                if (storm > 0)
+                    client.subscribe(IPCClient.Event.ACTIVITY_JOIN_REQUEST);
+                clients.add(client);
+            }
+            System.out.printf("%d clients connected, %d updates per second each for %d seconds%s%n",
+                    clientCount, rate, seconds, storm > 0 ? ", " + storm + " events per second each" : "");
+
+            long period = TimeUnit.SECONDS.toNanos(1) / rate;
+            for (int i = 0; i < clientCount; i++) {
+                IPCClient client = clients.get(i);
+                AtomicInteger sequence = new AtomicInteger();
+                senders.scheduleAtFixedRate(() -> update(client, sequence.incrementAndGet()),
+                        period * i / clientCount, period, TimeUnit.NANOSECONDS);
+            }
+            if (storm > 0) {
+                JsonObject request = joinRequest();
+                // sent in batches every 10 ms, which is as even as the scheduler keeps up with
+                int perTick = Math.max(1, storm / 100);
+                long tick = TimeUnit.SECONDS.toNanos(1) * perTick / storm;
+                senders.scheduleAtFixedRate(() -> {
+                    for (int i = 0; i < perTick; i++)
+                        server.dispatch("ACTIVITY_JOIN_REQUEST", request);
+                }, 0, tick, TimeUnit.NANOSECONDS);
+            }
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds) / 5);
+            Snapshot start = new Snapshot(clients);
+            measuring = true;
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+            measuring = false;
+            Snapshot end = new Snapshot(clients);
+            report(start, end);
+        } finally {
+            senders.shutdownNow();
+            for (IPCClient client : clients)
+                client.close();
+        }
+    }
+
+    private void update(IPCClient client, int sequence) {
+        RichPresence presence = new RichPresence.Builder()
+                .setState("Load testing")
+                .setDetails("Update " + sequence)
+                .build();
+        long sent = System.nanoTime();
+        client.sendRichPresenceAsync(presence).whenComplete((packet, ex) -> {
+            if (!measuring)
+                return;
+            if (ex != null)
+                failures.increment();
+            else
+                latencies.add(System.nanoTime() - sent);
+        });
+    }
+
+    private void report(Snapshot start, Snapshot end) {
+        double elapsed = (end.time - start.time) / 1e9;
+        long[] sorted = latencies.sorted();
+        System.out.printf("%12s %12s %10s %10s %10s %10s %9s %12s %8s%s%n",
+                "sent/s", "received/s", "acks", "p50 us", "p99 us", "p999 us", "failed", "alloc MB/s", "threads",
+                storm > 0 ? String.format(" %12s", "events/s") : "");
+        System.out.printf("%12.0f %12.0f %10d %10.0f %10.0f %10.0f %9d %12s %8d%s%n",
+                (end.framesSent - start.framesSent) / elapsed,
+                (end.framesReceived - start.framesReceived) / elapsed,
+                sorted.length,
+                percentile(sorted, 50) / 1e3, percentile(sorted, 99) / 1e3, percentile(sorted, 99.9) / 1e3,
+                failures.sum(),
+                start.allocated < 0 ? "n/a" : String.format("%.1f", (end.allocated - start.allocated) / elapsed / 1e6),
+                end.threads,
+                storm > 0 ? String.format(" %12.0f", (end.events - start.events) / elapsed) : "");
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0)
+            return Double.NaN;
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(rank, sorted.length - 1))];
+    }
+
+    private static JsonObject joinRequest() {
+        JsonObject user = new JsonObject();
+        user.addProperty("id", "53908232506183680");
+        user.addProperty("username", "Mason");
+        user.addProperty("discriminator", "1337");
+        user.addProperty("avatar", "a_bab14f271d565501444b2ca3be944b25");
+
+        JsonObject data = new JsonObject();
+        data.add("user", user);
+        data.addProperty("secret", "join");
+        return data;
+    }
+
+    /**
+     * Gets the bytes the live threads of this JVM have allocated on the heap so far.
+     * The threads doing the work live for the whole run, so this leaves little out.
+     *
+     * @return The allocated bytes, or {@code -1} where the JVM doesn't count them.
+     */
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                long total = 0;
+                for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+                    total += Math.max(0, allocated);
+                return total;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The counters at one point in the run.
+     */
+    private final class Snapshot {
+        private final long time = System.nanoTime();
+        private final long framesSent;
+        private final long framesReceived;
+        private final long events = LoadHarness.this.events.sum();
+        private final long allocated = allocatedBytes();
+        private final int threads = Footprint.threads();
+
+        private Snapshot(List<IPCClient> clients) {
+            long sent = 0;
+            long received = 0;
+            for (IPCClient client : clients) {
+                sent += client.getMetrics().getFramesSent();
+                received += client.getMetrics().getFramesReceived();
+            }
+            this.framesSent = sent;
+            this.framesReceived = received;
+        }
+    }
+
+    /**
+     * Latency samples recorded from many threads without locking, up to a fixed number.
+     */
+    private static final class Samples {
+        private final long[] values;
+        private final AtomicInteger size = new AtomicInteger();
+
+        private Samples(int capacity) {
+            this.values = new long[capacity];
+        }
+
+        private void add(long value) {
+            int i = size.getAndIncrement();
+            if (i < values.length)
+                values[i] = value;
+        }
+
+        private long[] sorted() {
+            long[] copy = Arrays.copyOf(values, Math.min(size.get(), values.length));
+            Arrays.sort(copy);
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.benchmarks;
+
+import com.jagrosh.discordipc.entities.Callback;
+import com.jagrosh.discordipc.entities.pipe.PendingRequests;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares correlating requests by random {@link UUID} nonces against numbering
+ * them with a counter.<p>
+ * <p>
+ * Each operation is one request's round trip through a shared {@link PendingRequests}:
+ * the nonce is made and encoded as the pipe would, the request is added, and it is
+ * removed again by the nonce as the reading thread would find it in Discord's answer.
+ * For UUIDs that means decoding a fresh String, for numbers just the number.
+ * The contended variants run the same on four threads at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NonceBenchmark {
+    private final Callback callback = new Callback(p -> {
+    });
+    private final AtomicLong counter = new AtomicLong();
+    private ScheduledExecutorService scheduler;
+    private PendingRequests pending;
+
+    @Setup
+    public void setup() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        pending = new PendingRequests(scheduler);
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public Callback uuid() {
+        return uuidRoundTrip();
+    }
+
+    @Benchmark
+    public Callback numeric() {
+        return numericRoundTrip();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Callback uuidContended() {
+        return uuidRoundTrip();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Callback numericContended() {
+        return numericRoundTrip();
+    }
+
+    private Callback uuidRoundTrip() {
+        String nonce = UUID.randomUUID().toString();
+        byte[] encoded = nonce.getBytes(StandardCharsets.US_ASCII);
+        pending.add(nonce, callback);
+        return pending.remove(new String(encoded, StandardCharsets.US_ASCII));
+    }
+
+    private Callback numericRoundTrip() {
+        long nonce = counter.incrementAndGet();
+        pending.add(nonce, callback);
+        return pending.remove(nonce);
+    }
+}
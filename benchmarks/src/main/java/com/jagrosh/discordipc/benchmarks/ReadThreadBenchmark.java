@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.benchmarks;
+
+import com.jagrosh.discordipc.IPCClient;
+import com.jagrosh.discordipc.ReadExecutors;
+import com.jagrosh.discordipc.entities.RichPresence;
+import com.jagrosh.discordipc.stub.StubDiscordServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares running each {@link IPCClient IPCClient's} read loop on a platform
+ * thread against running it on a virtual thread.<p>
+ * <p>
+ * Every client connects to a local {@link StubDiscordServer}. Once all of them
+ * are connected, each sends one Rich Presence update and waits for the answer, which
+ * has every read loop wake up once. Printed per mode are the time taken to connect
+ * and to complete the round trips, the live platform thread count, the heap in
+ * use after a GC and the resident set size of the process.<p>
+ * <p>
+ * Usage: {@code ReadThreadBenchmark [clientCount...]}, which defaults to 1, 100,
+ * 1,000 and 5,000 clients. Virtual threads need the benchmark to run on Java 21
+ * or newer, otherwise only platform threads are measured.
+ */
+public class ReadThreadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] counts = {1, 100, 1000, 5000};
+        if (args.length > 0) {
+            counts = new int[args.length];
+            for (int i = 0; i < args.length; i++)
+                counts[i] = Integer.parseInt(args[i]);
+        }
+        if (!ReadExecutors.isVirtualThreadSupported())
+            System.out.println("Virtual threads are not available on Java " + Runtime.version().feature() + ", skipping them");
+
+        try (StubDiscordServer server = StubDiscordServer.start()) {
+            System.setProperty("discordipc.dir", server.getDirectory().toString());
+            System.out.printf("%-10s %8s %12s %12s %8s %10s %10s%n",
+                    "mode", "clients", "connect ms", "round ms", "threads", "heap MiB", "rss MiB");
+            for (int count : counts) {
+                run("platform", count, ReadExecutors.daemonThreads("Reader"));
+                if (ReadExecutors.isVirtualThreadSupported())
+                    run("virtual", count, ReadExecutors.virtualThreads());
+            }
+        }
+    }
+
+    private static void run(String mode, int count, Executor executor) throws Exception {
+        List<IPCClient> clients = new ArrayList<>(count);
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                IPCClient client = new IPCClient(i + 1);
+                client.setReadExecutor(executor);
+                client.connect();
+                clients.add(client);
+            }
+            long connected = System.nanoTime();
+
+            RichPresence presence = new RichPresence.Builder().setState("Benchmarking").build();
+            List<CompletableFuture<?>> acks = new ArrayList<>(count);
+            for (IPCClient client : clients)
+                acks.add(client.sendRichPresenceAsync(presence));
+            CompletableFuture.allOf(acks.toArray(new CompletableFuture[0])).get(1, TimeUnit.MINUTES);
+            long answered = System.nanoTime();
+
+            Footprint.settle();
+            System.out.printf("%-10s %8d %12.1f %12.1f %8d %10.1f %10s%n", mode, count,
+                    (connected - start) / 1e6, (answered - connected) / 1e6,
+                    Footprint.threads(), Footprint.usedHeapMiB(), Footprint.rssMiB());
+        } finally {
+            for (IPCClient client : clients)
+                client.close();
+            Footprint.settle();
+        }
+    }
+}
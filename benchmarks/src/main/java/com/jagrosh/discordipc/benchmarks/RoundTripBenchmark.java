@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.benchmarks;
+
+import com.jagrosh.discordipc.IPCClient;
+import com.jagrosh.discordipc.entities.Packet;
+import com.jagrosh.discordipc.entities.RichPresence;
+import com.jagrosh.discordipc.stub.StubDiscordServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a Rich Presence update's full round trip: encoding it, writing it to a
+ * {@link StubDiscordServer} in the same process, the server answering it, and the
+ * read thread routing the answer back to the waiting future.<p>
+ * <p>
+ * The server is reached over a UNIX domain socket, or in memory over its
+ * {@link StubDiscordServer#loopback() loopback} transport, which leaves out the
+ * system calls. Times are sampled, so JMH reports percentiles as well as the mean.
+ * Nonces are either random UUIDs or numbered, as set by {@link IPCClient#setNumericNonces(boolean)}.
+ * The socket needs a JDK with UNIX domain socket channels, which Windows has not always had.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundTripBenchmark {
+    @Param({"unix", "loopback"})
+    public String transport;
+
+    @Param({"false", "true"})
+    public boolean numericNonces;
+
+    private StubDiscordServer server;
+    private IPCClient client;
+    private RichPresence presence;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = StubDiscordServer.start();
+        System.setProperty("discordipc.dir", server.getDirectory().toString());
+        client = new IPCClient(1);
+        client.setNumericNonces(numericNonces);
+        if ("loopback".equals(transport))
+            client.setTransportFactory(server.loopback());
+        client.connect();
+        presence = new RichPresence.Builder()
+                .setState("West of House")
+                .setDetails("Frustration level: Over 9000")
+                .setLargeImage("canary-large", "Discord Canary")
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public Packet sendRichPresence() throws Exception {
+        return client.sendRichPresenceAsync(presence).get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Handles {@code DISPATCH} events of one type received by an {@link IPCClient}.<p>
+ * <p>
+ * Handlers are registered by event name with {@link IPCClient#addEventHandler(String, EventHandler)},
+ * which also accepts events that {@link IPCClient.Event} has no constant for.
+ * An event's {@code data} is only parsed if a handler is registered for it.<p>
+ * <p>
+ * Handlers run on the thread reading from Discord, so they should not block.
+ */
+@FunctionalInterface
+public interface EventHandler {
+    /**
+     * Handles an event.
+     *
+     * @param client The IPCClient receiving the event.
+     * @param event  The name of the event, in upper case.
+     * @param data   The event's {@code data}, or {@code null} if there is none.
+     */
+    void onEvent(IPCClient client, String event, JsonObject data);
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.jagrosh.discordipc.entities.LatencyHistogram;
+import com.jagrosh.discordipc.entities.Packet.OpCode;
+import com.jagrosh.discordipc.entities.pipe.Pipe;
+import com.jagrosh.discordipc.entities.pipe.PipeStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends PINGs over one {@link Pipe} on a schedule, recording the round trip of
+ * every PONG, and tells its {@link IPCClient} when Discord stops answering.<p>
+ * <p>
+ * Only one PING is ever awaiting its PONG, so any PONG answers it. PINGs aren't
+ * tracked as requests, so the request timeout and the limit on pending requests
+ * never fail one that Discord is still going to answer.
+ */
+final class Heartbeat {
+    // a payload of just the nonce, which the pipe adds
+    private static final byte[] PING_PAYLOAD = "{".getBytes(StandardCharsets.UTF_8);
+
+    private final IPCClient client;
+    private final Pipe pipe;
+    private final long timeoutNanos;
+    private final LatencyHistogram roundTripTimes;
+    private final ScheduledFuture<?> future;
+    // when the PING awaiting its PONG was sent, or 0 if none is
+    private volatile long sentAt = 0;
+
+    Heartbeat(IPCClient client, Pipe pipe, long interval, long timeout,
+              LatencyHistogram roundTripTimes, ScheduledExecutorService scheduler) {
+        this.client = client;
+        this.pipe = pipe;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.roundTripTimes = roundTripTimes;
+        this.future = scheduler.scheduleAtFixedRate(this::beat, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        future.cancel(false);
+    }
+
+    private void beat() {
+        if (pipe.getStatus() != PipeStatus.CONNECTED) {
+            stop();
+            return;
+        }
+        long now = System.nanoTime();
+        long sent = sentAt;
+        if (sent != 0) {
+            if (now - sent >= timeoutNanos) {
+                stop();
+                client.handleStall(pipe, TimeUnit.NANOSECONDS.toMillis(now - sent));
+            }
+            return; // still waiting on the last PONG
+        }
+        sentAt = now;
+        // a PING that never goes out counts towards a stall, as one that is never answered does
+        pipe.send(OpCode.PING, null, PING_PAYLOAD);
+    }
+
+    /**
+     * Records the round trip of the PING awaiting its PONG, now that it has been answered.
+     */
+    void answered() {
+        long sent = sentAt;
+        if (sent == 0)
+            return;
+        roundTripTimes.record(System.nanoTime() - sent);
+        sentAt = 0;
+    }
+}
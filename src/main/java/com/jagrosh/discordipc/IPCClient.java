@@ -19,16 +19,40 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.jagrosh.discordipc.entities.*;
 import com.jagrosh.discordipc.entities.Packet.OpCode;
+import com.jagrosh.discordipc.entities.pipe.PendingRequests;
 import com.jagrosh.discordipc.entities.pipe.Pipe;
 import com.jagrosh.discordipc.entities.pipe.PipeStatus;
+import com.jagrosh.discordipc.entities.pipe.TransportFactory;
+import com.jagrosh.discordipc.entities.pipe.WriteOverflowPolicy;
 import com.jagrosh.discordipc.exceptions.NoDiscordClientException;
+import com.jagrosh.discordipc.exceptions.RequestFailedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import java.io.Closeable;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Represents a Discord IPC Client that can send and receive
@@ -55,11 +79,70 @@ import java.util.HashMap;
  */
 public final class IPCClient implements Closeable {
     private static final Logger LOGGER = LoggerFactory.getLogger(IPCClient.class);
+    // everything in a SET_ACTIVITY frame but the activity and nonce is the same for the life of the process
+    private static final byte[] SET_ACTIVITY_HEAD = ("{\"cmd\":\"SET_ACTIVITY\",\"args\":{\"pid\":"
+            + ProcessHandle.current().pid() + ",\"activity\":").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ARGS_END = "},".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CLEAR_ACTIVITY = concat(SET_ACTIVITY_HEAD, "null".getBytes(StandardCharsets.UTF_8), ARGS_END);
+    // shared by every client for timing reconnect attempts, rate limited updates, timeouts and heartbeats
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "IPCClient-Scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // runs reconnect attempts, which block while probing for Discord and so must stay off the scheduler
+    private static final ExecutorService RECONNECTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "IPCClient-Reconnect");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static volatile Executor defaultReadExecutor = null;
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
     private final long clientId;
-    private final HashMap<String, Callback> callbacks = new HashMap<>();
+    private final PendingRequests pending = new PendingRequests(SCHEDULER);
     private volatile Pipe pipe;
-    private IPCListener listener = null;
+    private volatile IPCListener listener = null;
+    // the listener as set, before being wrapped by the dispatcher
+    private IPCListener directListener = null;
+    // whether that listener does anything with sent packets
+    private volatile boolean packetsSent = false;
+    private ListenerDispatcher dispatcher = null;
     private Thread readThread = null;
+    private Executor readExecutor = null;
+    private IPCEventLoop eventLoop = null;
+    private long connectTimeout = Pipe.DEFAULT_TIMEOUT;
+    private volatile TransportFactory transportFactory = TransportFactory.SYSTEM;
+    private volatile int maxFrameSize = Pipe.DEFAULT_MAX_FRAME_SIZE;
+    private volatile int writeQueueCapacity = Pipe.DEFAULT_WRITE_QUEUE_CAPACITY;
+    private volatile WriteOverflowPolicy writeOverflowPolicy = WriteOverflowPolicy.REJECT;
+    // heartbeats are off while the interval is 0
+    private volatile long heartbeatInterval = 0;
+    private volatile long heartbeatTimeout = 0;
+    private volatile Heartbeat heartbeat = null;
+    private final LatencyHistogram roundTripTimes = new LatencyHistogram(256);
+    // the last pipe whose loss was handled, so that it is only handled once
+    private final AtomicReference<Pipe> failedPipe = new AtomicReference<>();
+    private final IPCMetrics metrics = new IPCMetrics(pending::size, () -> {
+        Pipe pipe = this.pipe;
+        return pipe == null ? 0 : pipe.getQueuedWrites();
+    });
+    private final int instance = INSTANCES.incrementAndGet();
+    private ObjectName metricsName = null;
+    private DiscordBuild[] preferredOrder = null;
+
+    // state that the reconnect supervisor replays once it has reconnected
+    private volatile ReconnectPolicy reconnectPolicy = null;
+    private volatile boolean reconnecting = false;
+    private volatile RichPresence lastPresence = null;
+    private final Set<Event> subscriptions = ConcurrentHashMap.newKeySet();
+    // DISPATCH event name to its handlers, arrays are replaced rather than changed
+    private final Map<String, EventHandler[]> eventHandlers = new ConcurrentHashMap<>();
+    private final EventHandler listenerHandler = (client, evt, data) -> dispatchToListener(Event.of(evt), data);
+    private long disconnectedAt;
+    private volatile Duration lastReconnectDuration = null;
+    private volatile PresenceCoalescer coalescer = null;
+    private volatile boolean skipDuplicatePresence = false;
+    private final AtomicReference<SentPresence> lastSent = new AtomicReference<>();
 
     /**
      * Constructs a new IPCClient using the provided {@code clientId}.<br>
@@ -70,16 +153,26 @@ public final class IPCClient implements Closeable {
      */
     public IPCClient(long clientId) {
         this.clientId = clientId;
+        pending.setTimer(metrics::requestAnswered);
     }
 
     /**
-     * Finds the current process ID.
+     * Joins byte arrays end to end.
      *
-     * @return The current process ID.
+     * @param parts The arrays to join.
+     * @return The joined array.
      */
-    private static int getPID() {
-        String pr = ManagementFactory.getRuntimeMXBean().getName();
-        return Integer.parseInt(pr.substring(0, pr.indexOf('@')));
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+        for (byte[] part : parts)
+            length += part.length;
+        byte[] joined = new byte[length];
+        int pos = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, joined, pos, part.length);
+            pos += part.length;
+        }
+        return joined;
     }
 
     /**
@@ -95,9 +188,228 @@ public final class IPCClient implements Closeable {
      * @see IPCListener
      */
     public void setListener(IPCListener listener) {
-        this.listener = listener;
+        this.directListener = listener;
+        updateListener();
+    }
+
+    /**
+     * Sets the {@link ListenerDispatcher} that delivers this IPCClient's events
+     * to its {@link IPCListener}.<p>
+     * <p>
+     * By default listeners run on the thread the event happened on, usually the
+     * reading thread, so a slow listener holds up everything else on the connection.
+     * With a dispatcher they run on its executor instead, and never hold up the pipe
+     * (unless its {@link ListenerDispatcher.OverflowPolicy} is to block).<p>
+     * <p>
+     * Setting this {@code null} goes back to running listeners inline.
+     *
+     * @param dispatcher The {@link ListenerDispatcher} to deliver events through, or {@code null}.
+     */
+    public void setListenerDispatcher(ListenerDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+        updateListener();
+    }
+
+    /**
+     * Sets the {@link IPCEventLoop} that reads this IPCClient's incoming data.<p>
+     * <p>
+     * By default every connected IPCClient has its own reading thread. Setting an
+     * event loop lets any number of IPCClients share that loop's threads instead.
+     * Pipes that cannot be multiplexed (such as Windows named pipes) still get
+     * their own reading thread.<p>
+     * <p>
+     * This takes effect on the next call to {@link #connect(DiscordBuild...)}.
+     * Setting this {@code null} goes back to a reading thread per connection.
+     *
+     * @param eventLoop The {@link IPCEventLoop} to read with, or {@code null}.
+     * @see IPCEventLoop
+     */
+    public void setEventLoop(IPCEventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+    }
+
+    /**
+     * Sets the {@link Executor} that runs this IPCClient's read loop.<p>
+     * <p>
+     * The read loop blocks for as long as the connection is open, so the executor
+     * must run it on a thread of its own. {@link ReadExecutors} has ready made ones,
+     * including {@link ReadExecutors#virtualThreads() virtual threads} on Java 21
+     * or newer. An {@link IPCEventLoop} takes precedence over this where it applies.<p>
+     * <p>
+     * This takes effect on the next call to {@link #connect(DiscordBuild...)}.
+     * Setting this {@code null} goes back to the {@link #setDefaultReadExecutor(Executor) default}.
+     *
+     * @param readExecutor The {@link Executor} to read on, or {@code null}.
+     */
+    public void setReadExecutor(Executor readExecutor) {
+        this.readExecutor = readExecutor;
+    }
+
+    /**
+     * Sets the {@link Executor} that runs the read loop of every IPCClient
+     * that has no {@link #setReadExecutor(Executor) executor of its own}.<p>
+     * <p>
+     * Setting this {@code null}, which is the default, gives each connection
+     * a new (non-daemon) thread of its own.
+     *
+     * @param executor The {@link Executor} to read on, or {@code null}.
+     */
+    public static void setDefaultReadExecutor(Executor executor) {
+        defaultReadExecutor = executor;
+    }
+
+    /**
+     * Sets how long each Discord pipe may take to answer the handshake
+     * when calling {@link #connect(DiscordBuild...)}.<p>
+     * <p>
+     * All pipes are probed at once, so this is also roughly the longest
+     * a call to connect can take.
+     *
+     * @param timeout The timeout, in milliseconds.
+     */
+    public void setConnectTimeout(long timeout) {
+        if (timeout <= 0)
+            throw new IllegalArgumentException("Connect timeout must be positive!");
+        this.connectTimeout = timeout;
+    }
+
+    /**
+     * Sets the {@link TransportFactory} this IPCClient opens its connection to Discord with,
+     * which takes effect the next time it connects.<p>
+     * <p>
+     * By default this is {@link TransportFactory#SYSTEM}, which connects to the Discord client
+     * running on this machine. Others can connect to a stand-in, such as one at the other end
+     * of a {@link com.jagrosh.discordipc.entities.pipe.LoopbackTransport LoopbackTransport}.
+     *
+     * @param transportFactory The factory, or {@code null} for the default.
+     */
+    public void setTransportFactory(TransportFactory transportFactory) {
+        this.transportFactory = transportFactory == null ? TransportFactory.SYSTEM : transportFactory;
+    }
+
+    /**
+     * Sets the largest frame, header included, that this IPCClient reads or writes,
+     * which takes effect the next time it connects.<p>
+     * <p>
+     * A frame from Discord claiming to be larger is taken as a broken connection,
+     * before anything is allocated for it, and requests that would be larger fail.
+     * The default is {@value Pipe#DEFAULT_MAX_FRAME_SIZE} bytes.
+     *
+     * @param maxFrameSize The largest frame in bytes.
+     */
+    public void setMaxFrameSize(int maxFrameSize) {
+        if (maxFrameSize < 64)
+            throw new IllegalArgumentException("Maximum frame size is too small!");
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * Sets how long Discord has to answer a request, such as a {@link RichPresence}
+     * update or a subscription, before its {@link Callback} is failed.
+     *
+     * @param timeout The timeout, in milliseconds.
+     */
+    public void setRequestTimeout(long timeout) {
+        pending.setTimeout(timeout);
+    }
+
+    /**
+     * Sets whether this IPCClient numbers its requests with a counter that starts over
+     * for every connection, rather than giving each one a random {@link java.util.UUID UUID}.<p>
+     * <p>
+     * Numbered requests are cheaper to send and to match up with Discord's answers,
+     * as no random numbers are drawn and the nonces are never hashed as Strings.
+     * This takes effect on the next call to {@link #connect(DiscordBuild...)}.
+     *
+     * @param numericNonces Whether to number requests.
+     */
+    public void setNumericNonces(boolean numericNonces) {
+        pending.setNumericNonces(numericNonces);
+    }
+
+    /**
+     * Sets the most requests that may await an answer from Discord at once.<p>
+     * <p>
+     * Requests made while this many are pending are not sent, and
+     * their {@link Callback} is failed right away.
+     *
+     * @param maxPendingRequests The maximum number of pending requests.
+     */
+    public void setMaxPendingRequests(int maxPendingRequests) {
+        pending.setCapacity(maxPendingRequests);
+    }
+
+    /**
+     * Bounds the number of frames waiting to be written to Discord.<p>
+     * <p>
+     * Frames are written by a writer thread in the order they were sent, apart from
+     * PINGs and PONGs, which go ahead of everything else and don't count towards the
+     * bound. A CLOSE doesn't count towards it either, but waits for the frames sent
+     * before it to be written. Once {@code capacity} frames are waiting, typically because
+     * Discord has stopped reading, the {@link WriteOverflowPolicy} decides which
+     * frame is failed. By default that is the new one.
+     *
+     * @param capacity The most frames that may wait to be written.
+     * @param policy   What to do with frames past that.
+     */
+    public void setWriteQueue(int capacity, WriteOverflowPolicy policy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive!");
+        this.writeQueueCapacity = capacity;
+        this.writeOverflowPolicy = policy;
+        Pipe pipe = this.pipe;
         if (pipe != null)
-            pipe.setListener(listener);
+            pipe.setWriteQueue(capacity, policy);
+    }
+
+    /**
+     * Sets how often this IPCClient PINGs Discord while connected, and how long
+     * Discord has to answer with a PONG.<p>
+     * <p>
+     * The round trip of every PONG is recorded in {@link #getRoundTripTimes()}.
+     * If a PONG takes longer than {@code timeout}, the connection is considered
+     * stalled and is torn down as if it was lost, which fires
+     * {@link IPCListener#onDisconnect(IPCClient, Throwable)} and reconnects if a
+     * {@link ReconnectPolicy} is set. PINGs from Discord are answered either way.<p>
+     * <p>
+     * Heartbeats are off by default. Setting an interval of {@code 0} turns them off.
+     *
+     * @param interval How often to PING, in milliseconds, or {@code 0} to stop.
+     * @param timeout  How long a PONG may take before the connection is stalled, in milliseconds.
+     */
+    public void setHeartbeat(long interval, long timeout) {
+        if (interval < 0 || (interval > 0 && timeout <= 0))
+            throw new IllegalArgumentException("Invalid heartbeat!");
+        this.heartbeatInterval = interval;
+        this.heartbeatTimeout = timeout;
+        if (getStatus() == PipeStatus.CONNECTED)
+            startHeartbeat();
+    }
+
+    /**
+     * Gets the round trip times of the latest heartbeats.
+     *
+     * @return The {@link LatencyHistogram} heartbeats are recorded in.
+     * @see #setHeartbeat(long, long)
+     */
+    public LatencyHistogram getRoundTripTimes() {
+        return roundTripTimes;
+    }
+
+    /**
+     * Gets the {@link IPCMetrics} of this IPCClient's traffic with Discord.<p>
+     * <p>
+     * While connected, these are also registered with the platform MBean server as
+     * {@code com.jagrosh.discordipc:type=IPCClient,clientId=<id>,instance=<n>}.
+     *
+     * @return The IPCMetrics.
+     */
+    public IPCMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -107,20 +419,54 @@ public final class IPCClient implements Closeable {
      * IPCClient and Discord.</b>
      *
      * @param preferredOrder the priority order of client builds to connect to
-     * @throws IllegalStateException    There is an open connection on this IPCClient.
+     * @throws IllegalStateException    There is an open connection on this IPCClient, or its {@link IPCEventLoop} has been closed.
      * @throws NoDiscordClientException No client of the provided {@link DiscordBuild build type}(s) was found.
      */
-    public void connect(DiscordBuild... preferredOrder) throws NoDiscordClientException {
+    public synchronized void connect(DiscordBuild... preferredOrder) throws NoDiscordClientException {
+        reconnecting = false;
         checkConnected(false);
-        callbacks.clear();
-        pipe = null;
+        this.preferredOrder = preferredOrder;
+        if (coalescer != null)
+            coalescer.cancel("Reconnected");
+        lastPresence = null;
+        subscriptions.clear();
+        open();
+        registerMetrics();
 
-        pipe = Pipe.openPipe(this, clientId, callbacks, preferredOrder);
-
-        LOGGER.debug("Client is now connected and ready!");
         if (listener != null)
             listener.onReady(this);
         startReading();
+        startHeartbeat();
+    }
+
+    /**
+     * Sets the {@link ReconnectPolicy} this IPCClient follows when it unexpectedly
+     * loses its connection to Discord.<p>
+     * <p>
+     * Once reconnected, the last {@link RichPresence} sent and every {@link Event}
+     * subscribed to are sent again, and {@link IPCListener#onReconnect(IPCClient, Duration)}
+     * is fired instead of {@link IPCListener#onReady(IPCClient)}. While reconnecting,
+     * {@link #getStatus()} is {@link PipeStatus#CONNECTING}, and calling {@link #close()}
+     * stops any further attempts.<p>
+     * <p>
+     * Setting this {@code null}, which is the default, turns reconnecting off.
+     *
+     * @param reconnectPolicy The {@link ReconnectPolicy} to follow, or {@code null}.
+     * @see ReconnectPolicy#DEFAULT
+     */
+    public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
+    }
+
+    /**
+     * Gets how long this IPCClient was disconnected before its last automatic reconnect,
+     * measured from losing the connection until the new one was ready.
+     *
+     * @return The duration of the last reconnect, or {@code null} if it never reconnected.
+     * @see #setReconnectPolicy(ReconnectPolicy)
+     */
+    public Duration getLastReconnectDuration() {
+        return lastReconnectDuration;
     }
 
     /**
@@ -158,17 +504,134 @@ public final class IPCClient implements Closeable {
      */
     public void sendRichPresence(RichPresence presence, Callback callback) {
         checkConnected(true);
-        LOGGER.debug("Sending RichPresence to discord: " + (presence == null ? null : presence.toJson().toString()));
+        PresenceCoalescer coalescer = this.coalescer;
+        if (skipDuplicatePresence) {
+            SentPresence sent = lastSent.get();
+            if (sent != null && sent.isAcknowledged(presence)) {
+                LOGGER.debug("Skipping RichPresence identical to the one Discord already has");
+                if (coalescer != null)
+                    coalescer.supersede();
+                if (callback != null)
+                    callback.succeed(sent.ack);
+                return;
+            }
+        }
+        if (coalescer != null)
+            coalescer.submit(presence, callback);
+        else
+            sendRichPresenceNow(presence, callback);
+    }
 
-        JsonObject payload = new JsonObject();
-        JsonObject args = new JsonObject();
-        args.addProperty("pid", getPID());
-        args.add("activity", presence == null ? null : presence.toJson());
+    /**
+     * Sends a {@link RichPresence} to the Discord client, returning a
+     * {@link CompletableFuture} that completes with Discord's response.<p>
+     * <p>
+     * The future completes exceptionally with a {@link RequestFailedException} if
+     * the request fails, or with a {@link CancellationException} if the update is
+     * superseded by a newer one before it was ever sent.
+     *
+     * @param presence The {@link RichPresence} to send.
+     * @return A future completing with Discord's response.
+     * @throws IllegalStateException If a connection was not made prior to invoking
+     *                               this method.
+     * @see #sendRichPresence(RichPresence, Callback)
+     */
+    public CompletableFuture<Packet> sendRichPresenceAsync(RichPresence presence) {
+        CompletableFuture<Packet> future = new CompletableFuture<>();
+        sendRichPresence(presence, completing(future));
+        return future;
+    }
 
-        payload.addProperty("cmd", "SET_ACTIVITY");
-        payload.add("args", args);
+    /**
+     * Sets whether {@link RichPresence} updates are coalesced to fit within
+     * Discord's activity rate limit of 5 updates every 20 seconds.<p>
+     * <p>
+     * When on, {@link #sendRichPresence(RichPresence, Callback)} only ever keeps
+     * the latest update waiting until the rate limit allows it to be sent.
+     * Updates replaced before being sent are never serialized, and their
+     * {@link Callback} is {@link Callback#supersede() superseded}.
+     *
+     * @param coalescing Whether to coalesce Rich Presence updates.
+     * @see #setPresenceCoalescing(int, long)
+     */
+    public void setPresenceCoalescing(boolean coalescing) {
+        if (coalescing)
+            setPresenceCoalescing(5, 20000);
+        else
+            setPresenceCoalescing(0, 0);
+    }
 
-        pipe.send(OpCode.FRAME, payload, callback);
+    /**
+     * Coalesces {@link RichPresence} updates to fit within the provided rate limit.
+     *
+     * @param updates The number of updates allowed per period, or {@code 0} to stop coalescing.
+     * @param period  The period, in milliseconds.
+     * @see #setPresenceCoalescing(boolean)
+     */
+    public void setPresenceCoalescing(int updates, long period) {
+        PresenceCoalescer previous = this.coalescer;
+        this.coalescer = updates == 0 ? null : new PresenceCoalescer(this, new TokenBucket(updates, period), SCHEDULER);
+        if (previous != null)
+            previous.cancel("Presence coalescing was reconfigured");
+    }
+
+    /**
+     * Sets whether a {@link RichPresence} equal to the last one Discord acknowledged
+     * is skipped rather than sent again.<p>
+     * <p>
+     * A skipped update's {@link Callback} succeeds right away with the acknowledgement
+     * of the earlier update. Presences are compared by their
+     * {@link RichPresence#fingerprint() fingerprint} first, so the check is cheap.
+     * An update is only skipped when no different update has been sent since.
+     *
+     * @param skipDuplicatePresence Whether to skip duplicate Rich Presence updates.
+     */
+    public void setSkipDuplicatePresence(boolean skipDuplicatePresence) {
+        this.skipDuplicatePresence = skipDuplicatePresence;
+        lastSent.set(null);
+    }
+
+    /**
+     * Sends a {@link RichPresence} to Discord right away, regardless of coalescing.
+     *
+     * @param presence The {@link RichPresence} to send, or {@code null} to clear it.
+     * @param callback A {@link Callback} to handle success or error
+     */
+    void sendRichPresenceNow(RichPresence presence, Callback callback) {
+        sendRichPresenceNow(presence, callback, null);
+    }
+
+    /**
+     * Sends a {@link RichPresence} to Discord right away, or queues it in a batch.
+     *
+     * @param presence The {@link RichPresence} to send, or {@code null} to clear it.
+     * @param callback A {@link Callback} to handle success or error
+     * @param batch    The {@link Pipe.Batch} to queue the update in, or {@code null} to write it now.
+     */
+    private void sendRichPresenceNow(RichPresence presence, Callback callback, Pipe.Batch batch) {
+        byte[] activity = presence == null ? null : presence.toJsonBytes();
+        if (LOGGER.isDebugEnabled())
+            LOGGER.debug("Sending RichPresence to discord: " + (activity == null ? "null" : new String(activity, StandardCharsets.UTF_8)));
+
+        if (skipDuplicatePresence) {
+            SentPresence sent = new SentPresence(presence);
+            lastSent.set(sent);
+            Callback inner = callback;
+            callback = new Callback(p -> {
+                sent.ack = p;
+                if (inner != null)
+                    inner.succeed(p);
+            }, inner == null ? null : inner::fail);
+        }
+        if (batch != null && activity == null)
+            batch.send(OpCode.FRAME, callback, CLEAR_ACTIVITY);
+        else if (batch != null)
+            batch.send(OpCode.FRAME, callback, SET_ACTIVITY_HEAD, activity, ARGS_END);
+        else if (activity == null)
+            pipe.send(OpCode.FRAME, callback, CLEAR_ACTIVITY);
+        else
+            pipe.send(OpCode.FRAME, callback, SET_ACTIVITY_HEAD, activity, ARGS_END);
+        lastPresence = presence;
     }
 
     /**
@@ -202,14 +665,64 @@ public final class IPCClient implements Closeable {
      */
     public void subscribe(Event sub, Callback callback) {
         checkConnected(true);
+        subscribe(sub, callback, null);
+    }
+
+    /**
+     * Subscribes to an {@link Event} right away, or queues the subscription in a batch.
+     *
+     * @param sub      The event {@link Event} to add.
+     * @param callback The {@link Callback} to handle success or failure
+     * @param batch    The {@link Pipe.Batch} to queue the subscription in, or {@code null} to write it now.
+     */
+    private void subscribe(Event sub, Callback callback, Pipe.Batch batch) {
         if (!sub.isSubscribable())
             throw new IllegalStateException("Cannot subscribe to " + sub + " event!");
         LOGGER.debug(String.format("Subscribing to Event: %s", sub.name()));
 
         JsonObject payload = new JsonObject();
-        payload.addProperty("cmd", "SUBCRIBE");
+        payload.addProperty("cmd", "SUBSCRIBE");
         payload.addProperty("evt", sub.name());
-        pipe.send(OpCode.FRAME, payload, callback);
+        if (batch != null)
+            batch.send(OpCode.FRAME, payload, callback);
+        else
+            pipe.send(OpCode.FRAME, payload, callback);
+        subscriptions.add(sub);
+    }
+
+    /**
+     * Adds an event {@link Event} to this IPCClient, returning a
+     * {@link CompletableFuture} that completes with Discord's response.<p>
+     * <p>
+     * The future completes exceptionally with a {@link RequestFailedException}
+     * if the request fails.
+     *
+     * @param sub The event {@link Event} to add.
+     * @return A future completing with Discord's response.
+     * @throws IllegalStateException If a connection was not made prior to invoking
+     *                               this method.
+     * @see #subscribe(Event, Callback)
+     */
+    public CompletableFuture<Packet> subscribeAsync(Event sub) {
+        CompletableFuture<Packet> future = new CompletableFuture<>();
+        subscribe(sub, completing(future));
+        return future;
+    }
+
+    /**
+     * Starts a {@link Batch} of commands that are sent to Discord together.<p>
+     * <p>
+     * Queued commands are written with as few writes as the pipe allows (a single
+     * gathering write on unix sockets) once the batch is {@link Batch#flush() flushed},
+     * rather than one write per command. Each still gets its own nonce and completion.
+     *
+     * @return The new, empty Batch.
+     * @throws IllegalStateException If a connection was not made prior to invoking
+     *                               this method.
+     */
+    public Batch batch() {
+        checkConnected(true);
+        return new Batch(pipe.batch());
     }
 
     /**
@@ -218,6 +731,7 @@ public final class IPCClient implements Closeable {
      * @return The IPCClient's current {@link PipeStatus}.
      */
     public PipeStatus getStatus() {
+        if (reconnecting) return PipeStatus.CONNECTING;
         if (pipe == null) return PipeStatus.UNINITIALIZED;
 
         return pipe.getStatus();
@@ -225,20 +739,31 @@ public final class IPCClient implements Closeable {
 
     /**
      * Attempts to close an open connection to Discord.<br>
-     * This can be reopened with another call to {@link #connect(DiscordBuild...)}.
+     * This can be reopened with another call to {@link #connect(DiscordBuild...)}.<p>
+     * <p>
+     * If this IPCClient is reconnecting, this stops it from trying again instead.
      *
      * @throws IllegalStateException If a connection was not made prior to invoking
      *                               this method.
      */
     @Override
-    public void close() {
-        checkConnected(true);
-
-        try {
-            pipe.close();
-        } catch (IOException e) {
-            LOGGER.debug("Failed to close pipe", e);
+    public synchronized void close() {
+        if (reconnecting) {
+            LOGGER.debug("Cancelling reconnect");
+            reconnecting = false;
+        } else {
+            checkConnected(true);
+            try {
+                pipe.close();
+            } catch (IOException e) {
+                LOGGER.debug("Failed to close pipe", e);
+            }
         }
+        stopHeartbeat();
+        pending.failAll("Client was closed");
+        if (coalescer != null)
+            coalescer.cancel("Client was closed");
+        unregisterMetrics();
     }
 
     /**
@@ -261,9 +786,138 @@ public final class IPCClient implements Closeable {
         return pipe.getDiscordBuild();
     }
 
+    /**
+     * Registers an {@link EventHandler} for the {@code DISPATCH} events of the provided {@link Event}.
+     *
+     * @param event   The event to handle.
+     * @param handler The handler to register.
+     * @see #addEventHandler(String, EventHandler)
+     */
+    public void addEventHandler(Event event, EventHandler handler) {
+        addEventHandler(event.name(), handler);
+    }
+
+    /**
+     * Registers an {@link EventHandler} for {@code DISPATCH} events with the provided name.<p>
+     * <p>
+     * Any event name can be handled, including ones {@link Event} has no constant for.
+     * Names are matched as Discord sends them, in upper case. Events nothing is
+     * registered for are discarded without parsing their data.<p>
+     * <p>
+     * Handlers of the same event run in the order they were registered.
+     *
+     * @param event   The name of the event to handle, such as {@code ACTIVITY_JOIN}.
+     * @param handler The handler to register.
+     */
+    public void addEventHandler(String event, EventHandler handler) {
+        if (handler == null)
+            throw new IllegalArgumentException("Handler must not be null!");
+        eventHandlers.merge(event.toUpperCase(Locale.ROOT), new EventHandler[]{handler}, (current, added) -> {
+            EventHandler[] joined = Arrays.copyOf(current, current.length + 1);
+            joined[current.length] = added[0];
+            return joined;
+        });
+    }
+
+    /**
+     * Removes an {@link EventHandler} registered for the provided event name.
+     *
+     * @param event   The name of the event the handler was registered for.
+     * @param handler The handler to remove.
+     * @return {@code true} if the handler was registered.
+     */
+    public boolean removeEventHandler(String event, EventHandler handler) {
+        boolean[] removed = {false};
+        eventHandlers.computeIfPresent(event.toUpperCase(Locale.ROOT), (name, current) -> {
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == handler) {
+                    removed[0] = true;
+                    if (current.length == 1)
+                        return null;
+                    EventHandler[] rest = new EventHandler[current.length - 1];
+                    System.arraycopy(current, 0, rest, 0, i);
+                    System.arraycopy(current, i + 1, rest, i, rest.length - i);
+                    return rest;
+                }
+            }
+            return current;
+        });
+        return removed[0];
+    }
+
 
     // Private methods
 
+    /**
+     * Hands the current {@link IPCListener}, wrapped by the {@link ListenerDispatcher}
+     * if there is one, to this IPCClient and its {@link Pipe}.
+     */
+    private synchronized void updateListener() {
+        IPCListener direct = directListener;
+        ListenerDispatcher dispatcher = this.dispatcher;
+        IPCListener previous = this.listener;
+        // a dispatcher times the listener itself, around only the calls it makes
+        if (direct == null)
+            this.listener = null;
+        else
+            this.listener = dispatcher == null ? metrics.timed(direct) : dispatcher.wrap(direct);
+        this.packetsSent = direct != null && ListenerDispatcher.handlesPacketSent(direct);
+        if (pipe != null)
+            pipe.setListener(this.listener, packetsSent);
+        // the listener's activity events go through the event handlers like any other
+        if (previous == null && this.listener != null) {
+            for (Event event : Event.values())
+                if (event.isSubscribable())
+                    addEventHandler(event, listenerHandler);
+        } else if (previous != null && this.listener == null) {
+            for (Event event : Event.values())
+                if (event.isSubscribable())
+                    removeEventHandler(event.name(), listenerHandler);
+        }
+    }
+
+    /**
+     * Registers this IPCClient's {@link IPCMetrics} with the platform MBean server,
+     * unless they already are. JMX is optional, so failing to is only logged.
+     */
+    private void registerMetrics() {
+        if (metricsName != null)
+            return;
+        try {
+            ObjectName name = new ObjectName(String.format("com.jagrosh.discordipc:type=IPCClient,clientId=%d,instance=%d", clientId, instance));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            metricsName = name;
+        } catch (JMException | RuntimeException | LinkageError ex) {
+            LOGGER.debug("Failed to register metrics with JMX", ex);
+        }
+    }
+
+    /**
+     * Unregisters this IPCClient's {@link IPCMetrics} from the platform MBean server.
+     */
+    private void unregisterMetrics() {
+        if (metricsName == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+        } catch (JMException | RuntimeException ex) {
+            LOGGER.debug("Failed to unregister metrics from JMX", ex);
+        }
+        metricsName = null;
+    }
+
+    /**
+     * Creates a {@link Callback} that completes the provided future.
+     *
+     * @param future The future to complete.
+     * @return The Callback.
+     */
+    private static Callback completing(CompletableFuture<Packet> future) {
+        return new Callback(future::complete,
+                message -> future.completeExceptionally(new RequestFailedException(message)),
+                () -> future.completeExceptionally(new CancellationException("Superseded by a newer Rich Presence")));
+    }
+
     /**
      * Makes sure that the client is connected (or not) depending on if it should
      * for the current state.
@@ -279,96 +933,458 @@ public final class IPCClient implements Closeable {
     }
 
     /**
-     * Initializes this IPCClient's {@link IPCClient#readThread readThread}
-     * and calls the first {@link Pipe#read()}.
+     * Opens a new {@link Pipe} to Discord using the last requested build order.
+     *
+     * @throws NoDiscordClientException No client of the requested build type(s) was found.
+     */
+    private void open() throws NoDiscordClientException {
+        pending.failAll("Connection was reopened");
+        pipe = null;
+
+        pipe = Pipe.openPipe(this, clientId, pending, connectTimeout, transportFactory, preferredOrder);
+        pipe.setListener(listener, packetsSent);
+        pipe.setWriteQueue(writeQueueCapacity, writeOverflowPolicy);
+        lastSent.set(null); // a new connection means a new (blank) presence
+
+        LOGGER.debug("Client is now connected and ready!");
+    }
+
+    /**
+     * Starts sending heartbeats over the current {@link Pipe}, if they are on,
+     * replacing any that were being sent before.
+     */
+    private synchronized void startHeartbeat() {
+        stopHeartbeat();
+        long interval = heartbeatInterval;
+        Pipe pipe = this.pipe;
+        if (interval > 0 && pipe != null)
+            heartbeat = new Heartbeat(this, pipe, interval, heartbeatTimeout, roundTripTimes, SCHEDULER);
+    }
+
+    private void stopHeartbeat() {
+        Heartbeat heartbeat = this.heartbeat;
+        this.heartbeat = null;
+        if (heartbeat != null)
+            heartbeat.stop();
+    }
+
+    /**
+     * Schedules an attempt to reconnect after a delay following the current {@link ReconnectPolicy}.
+     *
+     * @param policy  The policy to follow.
+     * @param attempt The number of attempts already made.
+     */
+    private void scheduleReconnect(ReconnectPolicy policy, int attempt) {
+        long delay = policy.getDelay(attempt);
+        LOGGER.debug(String.format("Reconnecting in %d ms (attempt %d)", delay, attempt + 1));
+        SCHEDULER.schedule(() -> RECONNECTOR.execute(() -> reconnect(policy, attempt)), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Attempts to reconnect to Discord, replaying this IPCClient's state if it succeeds.
+     *
+     * @param policy  The policy being followed.
+     * @param attempt The number of attempts already made.
+     */
+    private synchronized void reconnect(ReconnectPolicy policy, int attempt) {
+        if (!reconnecting)
+            return; // cancelled by close() or connect()
+        try {
+            open();
+        } catch (NoDiscordClientException | RuntimeException ex) {
+            if (policy.shouldRetry(attempt + 1)) {
+                scheduleReconnect(policy, attempt + 1);
+            } else {
+                LOGGER.warn(String.format("Giving up reconnecting after %d attempts", attempt + 1));
+                reconnecting = false;
+            }
+            return;
+        }
+        reconnecting = false;
+        try {
+            startReading();
+        } catch (IllegalStateException | RejectedExecutionException ex) {
+            LOGGER.warn("Gave up reconnecting, the new connection could not be read", ex);
+            return;
+        }
+        metrics.reconnected();
+        Duration took = Duration.ofNanos(System.nanoTime() - disconnectedAt);
+        lastReconnectDuration = took;
+        LOGGER.info(String.format("Reconnected to Discord after %d ms", took.toMillis()));
+        startHeartbeat();
+
+        RichPresence presence = lastPresence;
+        PresenceCoalescer coalescer = this.coalescer;
+        if (coalescer != null && coalescer.hasPending())
+            coalescer.flush(); // a newer presence is waiting, so don't bother with the old one
+        else if (presence != null)
+            sendRichPresenceNow(presence, null);
+        for (Event sub : subscriptions)
+            subscribe(sub);
+        if (listener != null)
+            listener.onReconnect(this, took);
+    }
+
+    /**
+     * Starts reading from this IPCClient's {@link Pipe}.<p>
+     * <p>
+     * If an {@link IPCEventLoop} has been set and the pipe supports it, the pipe is
+     * handed to the loop. Otherwise the read loop is handed to this IPCClient's read
+     * {@link Executor}, or if there is none, this initializes this IPCClient's
+     * {@link IPCClient#readThread readThread} and calls the first {@link Pipe#read()}.
      */
     private void startReading() {
-        readThread = new Thread(() -> {
+        if (eventLoop != null && pipe.getSelectableChannel() != null) {
+            LOGGER.debug("Registering IPCClient with its event loop!");
+            try {
+                eventLoop.register(this, pipe);
+            } catch (IllegalStateException ex) {
+                LOGGER.error("Event loop has been closed, closing the pipe");
+                try {
+                    pipe.close();
+                } catch (IOException e) {
+                    LOGGER.debug("Failed to close pipe", e);
+                }
+                throw ex;
+            }
+            return;
+        }
+
+        Pipe source = pipe;
+        Runnable loop = () -> {
             try {
                 Packet p;
-                while ((p = pipe.read()).getOp() != OpCode.CLOSE) {
-                    JsonObject json = p.getJson();
-                    if (json == null) continue;
-
-                    Event event = Event.of(json.has("evt") && !json.get("evt").isJsonNull() ? json.getAsJsonPrimitive("evt").getAsString() : null);
-                    String nonce = json.has("nonce") && !json.get("nonce").isJsonNull() ? json.getAsJsonPrimitive("nonce").getAsString() : null;
-                    switch (event) {
-                        case NULL:
-                            if (nonce != null && callbacks.containsKey(nonce))
-                                callbacks.remove(nonce).succeed(p);
-                            break;
-
-                        case ERROR:
-                            if (nonce != null && callbacks.containsKey(nonce))
-                                callbacks.remove(nonce).fail(json.getAsJsonObject("data").has("message") ? json.getAsJsonObject("data").getAsJsonObject("message").getAsString() : null);
-                            break;
-
-                        case ACTIVITY_JOIN:
-                            LOGGER.debug("Reading thread received a 'join' event.");
-                            break;
-
-                        case ACTIVITY_SPECTATE:
-                            LOGGER.debug("Reading thread received a 'spectate' event.");
-                            break;
-
-                        case ACTIVITY_JOIN_REQUEST:
-                            LOGGER.debug("Reading thread received a 'join request' event.");
-                            break;
-
-                        case UNKNOWN:
-                            LOGGER.debug("Reading thread encountered an event with an unknown type: " +
-                                    json.getAsJsonPrimitive("evt").getAsString());
-                            break;
-                    }
-                    if (listener != null && json.has("cmd") && json.getAsJsonPrimitive("cmd").getAsString().equals("DISPATCH")) {
-                        try {
-                            JsonObject data = json.getAsJsonObject("data");
-                            switch (Event.of(json.getAsJsonPrimitive("evt").getAsString())) {
-                                case ACTIVITY_JOIN:
-                                    listener.onActivityJoin(this, data.getAsJsonPrimitive("secret").getAsString());
-                                    break;
-
-                                case ACTIVITY_SPECTATE:
-                                    listener.onActivitySpectate(this, data.getAsJsonPrimitive("secret").getAsString());
-                                    break;
-
-                                case ACTIVITY_JOIN_REQUEST:
-                                    JsonObject u = data.getAsJsonObject("user");
-                                    User user = new User(
-                                            u.getAsJsonPrimitive("username").getAsString(),
-                                            u.getAsJsonPrimitive("discriminator").getAsString(),
-                                            Long.parseLong(u.getAsJsonPrimitive("id").getAsString()),
-                                            json.has("avatar") ? json.getAsJsonPrimitive("avatar").getAsString() : null
-                                    );
-                                    listener.onActivityJoinRequest(this, json.has("secret") ? json.getAsJsonObject("avatar").getAsString() : null, user);
-                                    break;
-                            }
-                        } catch (Exception e) {
-                            LOGGER.error("Exception when handling event: ", e);
-                        }
-                    }
+                while ((p = source.read()).getOp() != OpCode.CLOSE)
+                    handlePacket(p);
+                handleClose(source, p);
+            } catch (IOException | RuntimeException ex) {
+                handleFailure(source, ex);
+            }
+        };
+
+        Executor executor = readExecutor != null ? readExecutor : defaultReadExecutor;
+        if (executor == null) {
+            LOGGER.debug("Starting IPCClient reading thread!");
+            readThread = new Thread(loop, "IPCClient-Reader-" + clientId);
+            readThread.start();
+            return;
+        }
+        LOGGER.debug("Starting IPCClient read loop on its executor!");
+        try {
+            executor.execute(loop);
+        } catch (RejectedExecutionException ex) {
+            LOGGER.error("Read executor rejected the read loop, closing the pipe");
+            try {
+                source.close();
+            } catch (IOException e) {
+                LOGGER.debug("Failed to close pipe", e);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Handles a {@link Packet} read from this IPCClient's {@link Pipe},
+     * other than an {@link OpCode#CLOSE}.
+     *
+     * @param p The Packet read.
+     */
+    void handlePacket(Packet p) {
+        if (p.getOp() == OpCode.PING) {
+            pipe.send(new Packet(OpCode.PONG, p.getJson())); // Discord expects its payload back
+            return;
+        }
+        if (p.getOp() == OpCode.PONG) {
+            Heartbeat heartbeat = this.heartbeat;
+            if (heartbeat != null)
+                heartbeat.answered();
+        }
+        // routing only needs the top level keys, the rest is parsed for whoever reads it
+        String evt = p.getEventName();
+        Event event = Event.of(evt);
+        switch (event) {
+            case NULL:
+                Callback callback = removeCallback(p);
+                if (callback != null)
+                    callback.succeed(p);
+                break;
+
+            case ERROR:
+                callback = removeCallback(p);
+                if (callback != null) {
+                    JsonObject data = p.getJson().getAsJsonObject("data");
+                    callback.fail(data != null && data.has("message") ? data.getAsJsonPrimitive("message").getAsString() : null);
                 }
-                pipe.setStatus(PipeStatus.DISCONNECTED);
-                if (listener != null)
-                    listener.onClose(this, p.getJson());
-            } catch (IOException | JsonParseException ex) {
-                if (ex instanceof IOException)
-                    LOGGER.error("Reading thread encountered an IOException", ex);
-                else
-                    LOGGER.error("Reading thread encountered a JsonParseException", ex);
+                break;
+
+            default:
+                if ("DISPATCH".equals(p.getCommand()))
+                    dispatchEvent(event, event == Event.UNKNOWN ? evt.toUpperCase(Locale.ROOT) : event.name(), p);
+                break;
+        }
+    }
 
-                pipe.setStatus(PipeStatus.DISCONNECTED);
-                if (listener != null)
-                    listener.onDisconnect(this, ex);
+    /**
+     * Hands a {@code DISPATCH} {@link Packet} to the {@link EventHandler EventHandlers}
+     * registered for its event, or discards it unparsed if there are none.
+     *
+     * @param event The event, or {@link Event#UNKNOWN} if it has no constant.
+     * @param evt   The name of the event, in upper case as handlers are registered.
+     * @param p     The Packet read.
+     */
+    private void dispatchEvent(Event event, String evt, Packet p) {
+        EventHandler[] handlers = eventHandlers.get(evt);
+        if (handlers == null) {
+            LOGGER.debug(String.format("Reading thread discarded a '%s' event with no handler", evt));
+            return;
+        }
+        JsonObject data = p.getJson().getAsJsonObject("data");
+        for (EventHandler handler : handlers) {
+            long start = System.nanoTime();
+            try {
+                if (handler == listenerHandler)
+                    dispatchToListener(event, data); // the event is already known
+                else
+                    handler.onEvent(this, evt, data);
+            } catch (Exception e) {
+                LOGGER.error("Exception when handling event: ", e);
             }
-        });
+            if (handler != listenerHandler) // the listener times itself
+                metrics.listenerRan(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Hands an activity event to this IPCClient's {@link IPCListener}.
+     *
+     * @param event The event.
+     * @param data  The event's data.
+     */
+    private void dispatchToListener(Event event, JsonObject data) {
+        IPCListener listener = this.listener;
+        if (listener == null)
+            return;
+        switch (event) {
+            case ACTIVITY_JOIN:
+                listener.onActivityJoin(this, data.getAsJsonPrimitive("secret").getAsString());
+                break;
+
+            case ACTIVITY_SPECTATE:
+                listener.onActivitySpectate(this, data.getAsJsonPrimitive("secret").getAsString());
+                break;
+
+            case ACTIVITY_JOIN_REQUEST:
+                JsonObject u = data.getAsJsonObject("user");
+                User user = new User(
+                        u.getAsJsonPrimitive("username").getAsString(),
+                        u.getAsJsonPrimitive("discriminator").getAsString(),
+                        Long.parseLong(u.getAsJsonPrimitive("id").getAsString()),
+                        u.has("avatar") && !u.get("avatar").isJsonNull() ? u.getAsJsonPrimitive("avatar").getAsString() : null
+                );
+                listener.onActivityJoinRequest(this, data.has("secret") ? data.getAsJsonPrimitive("secret").getAsString() : null, user);
+                break;
+        }
+    }
+
+    /**
+     * Removes the {@link Callback} of the request a {@link Packet} answers.<br>
+     * Numbered requests are looked up by their number, so that their nonce is
+     * never built as a String. A UUID nonce is never a plain number.<br>
+     * How long the request took is recorded in this IPCClient's {@link IPCMetrics}.
+     *
+     * @param p The Packet answering a request.
+     * @return The Callback, or {@code null} if no request with the Packet's nonce is pending.
+     */
+    private Callback removeCallback(Packet p) {
+        String command = p.getOp() == OpCode.PONG ? "PING" : p.getCommand();
+        long number = p.getNonceAsLong();
+        if (number > 0)
+            return pending.remove(number, command);
+        String nonce = p.getNonce();
+        return nonce == null ? null : pending.remove(nonce, command);
+    }
 
-        LOGGER.debug("Starting IPCClient reading thread!");
-        readThread.start();
+    /**
+     * Handles an {@link OpCode#CLOSE} read from this IPCClient's {@link Pipe}.
+     *
+     * @param source The Pipe the CLOSE was read from.
+     * @param p      The CLOSE Packet read.
+     */
+    void handleClose(Pipe source, Packet p) {
+        if (source != pipe)
+            return; // left over from a connection that has since been replaced
+        pipe.setStatus(PipeStatus.DISCONNECTED);
+        stopHeartbeat();
+        pending.failAll("Discord closed the connection");
+        if (listener != null)
+            listener.onClose(this, p.getJson());
+    }
+
+    /**
+     * Handles an exception encountered while reading from this IPCClient's {@link Pipe}.
+     *
+     * @param source The Pipe the exception was encountered on.
+     * @param ex     The exception encountered.
+     */
+    void handleFailure(Pipe source, Exception ex) {
+        // the failed pipe is done with either way, and a reconnect replaces it rather than closing it
+        try {
+            source.abort();
+        } catch (IOException e) {
+            LOGGER.debug("Failed to abort pipe", e);
+        }
+        if (source != pipe || source.getStatus() == PipeStatus.CLOSED || failedPipe.getAndSet(source) == source) {
+            LOGGER.debug("Reading thread stopped after the pipe was closed");
+            return;
+        }
+        if (ex instanceof IOException)
+            LOGGER.error("Reading thread encountered an IOException", ex);
+        else if (ex instanceof JsonParseException)
+            LOGGER.error("Reading thread encountered a JsonParseException", ex);
+        else
+            LOGGER.error("Reading thread encountered an exception", ex);
+
+        pipe.setStatus(PipeStatus.DISCONNECTED);
+        stopHeartbeat();
+        pending.failAll("Lost the connection to Discord");
+        ReconnectPolicy policy = reconnectPolicy;
+        if (policy != null) {
+            disconnectedAt = System.nanoTime();
+            reconnecting = true;
+        }
+        if (listener != null)
+            listener.onDisconnect(this, ex);
+        if (policy != null)
+            scheduleReconnect(policy, 0);
+    }
+
+    /**
+     * Tears down a {@link Pipe} that Discord has stopped answering heartbeats on,
+     * as if the connection was lost.
+     *
+     * @param source  The stalled Pipe.
+     * @param waiting How long the last PING has gone unanswered, in milliseconds.
+     */
+    void handleStall(Pipe source, long waiting) {
+        if (source != pipe || source.getStatus() != PipeStatus.CONNECTED)
+            return;
+        LOGGER.warn(String.format("Discord has not answered a heartbeat in %d ms, disconnecting", waiting));
+        // aborting the pipe wakes up the reading thread, whose failure is then ignored
+        handleFailure(source, new IOException(String.format("Discord stopped answering heartbeats for %d ms", waiting)));
     }
 
     // Private static methods
 
+    /**
+     * A {@link RichPresence} that was sent to Discord, and its acknowledgement once received.
+     */
+    private static final class SentPresence {
+        private final RichPresence presence;
+        private volatile Packet ack;
+
+        private SentPresence(RichPresence presence) {
+            this.presence = presence;
+        }
+
+        private boolean isAcknowledged(RichPresence other) {
+            if (ack == null)
+                return false;
+            if (presence == null || other == null)
+                return presence == other;
+            return presence.fingerprint() == other.fingerprint() && presence.equals(other);
+        }
+    }
+
+    /**
+     * Commands queued up to be sent to Discord together.<p>
+     * <p>
+     * Rich Presence updates in a batch are neither coalesced nor skipped as duplicates,
+     * and replace any update the IPCClient still has waiting to be coalesced. A Batch
+     * belongs to the connection it was started on, and is meant to be used by one thread.
+     *
+     * @see IPCClient#batch()
+     */
+    public final class Batch {
+        private final Pipe.Batch frames;
+
+        private Batch(Pipe.Batch frames) {
+            this.frames = frames;
+        }
+
+        /**
+         * Queues a {@link RichPresence} update.
+         *
+         * @param presence The {@link RichPresence} to send, or {@code null} to clear it.
+         * @param callback A {@link Callback} to handle success or error
+         * @return This Batch.
+         * @see IPCClient#sendRichPresence(RichPresence, Callback)
+         */
+        public Batch sendRichPresence(RichPresence presence, Callback callback) {
+            PresenceCoalescer coalescer = IPCClient.this.coalescer;
+            if (coalescer != null)
+                coalescer.supersede();
+            sendRichPresenceNow(presence, callback, frames);
+            return this;
+        }
+
+        /**
+         * Queues a {@link RichPresence} update, returning a {@link CompletableFuture}
+         * that completes with Discord's response.
+         *
+         * @param presence The {@link RichPresence} to send, or {@code null} to clear it.
+         * @return A future completing with Discord's response.
+         * @see IPCClient#sendRichPresenceAsync(RichPresence)
+         */
+        public CompletableFuture<Packet> sendRichPresenceAsync(RichPresence presence) {
+            CompletableFuture<Packet> future = new CompletableFuture<>();
+            sendRichPresence(presence, completing(future));
+            return future;
+        }
+
+        /**
+         * Queues a subscription to an {@link Event}.
+         *
+         * @param sub      The event {@link Event} to add.
+         * @param callback The {@link Callback} to handle success or failure
+         * @return This Batch.
+         * @see IPCClient#subscribe(Event, Callback)
+         */
+        public Batch subscribe(Event sub, Callback callback) {
+            IPCClient.this.subscribe(sub, callback, frames);
+            return this;
+        }
+
+        /**
+         * Queues a subscription to an {@link Event}, returning a {@link CompletableFuture}
+         * that completes with Discord's response.
+         *
+         * @param sub The event {@link Event} to add.
+         * @return A future completing with Discord's response.
+         * @see IPCClient#subscribeAsync(Event)
+         */
+        public CompletableFuture<Packet> subscribeAsync(Event sub) {
+            CompletableFuture<Packet> future = new CompletableFuture<>();
+            subscribe(sub, completing(future));
+            return future;
+        }
+
+        /**
+         * Gets the number of commands waiting to be flushed.
+         *
+         * @return The number of queued commands.
+         */
+        public int size() {
+            return frames.size();
+        }
+
+        /**
+         * Sends every queued command to Discord and empties this Batch.
+         */
+        public void flush() {
+            frames.flush();
+        }
+    }
+
     /**
      * Constants representing events that can be subscribed to
      * using {@link #subscribe(Event)}.<p>
@@ -392,6 +1408,15 @@ public final class IPCClient implements Closeable {
          */
         UNKNOWN(false);
 
+        // looked up for every frame read, so built once rather than scanned
+        private static final Map<String, Event> BY_NAME = new HashMap<>();
+
+        static {
+            for (Event event : values())
+                if (event != UNKNOWN)
+                    BY_NAME.put(event.name(), event);
+        }
+
         private final boolean subscribable;
 
         Event(boolean subscribable) {
@@ -401,11 +1426,10 @@ public final class IPCClient implements Closeable {
         static Event of(String str) {
             if (str == null)
                 return NULL;
-            for (Event s : Event.values()) {
-                if (s != UNKNOWN && s.name().equalsIgnoreCase(str))
-                    return s;
-            }
-            return UNKNOWN;
+            Event event = BY_NAME.get(str);
+            if (event == null) // Discord sends names in upper case, but has never promised to
+                event = BY_NAME.getOrDefault(str.toUpperCase(Locale.ROOT), UNKNOWN);
+            return event;
         }
 
         public boolean isSubscribable() {
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.jagrosh.discordipc.entities.Packet;
+import com.jagrosh.discordipc.entities.Packet.OpCode;
+import com.jagrosh.discordipc.entities.pipe.Pipe;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A shared, non-blocking reader for any number of {@link IPCClient IPCClients}.<p>
+ * <p>
+ * Each loop runs a fixed number of threads, each multiplexing the pipes
+ * assigned to it with a {@link Selector}. Connected IPCClients are spread
+ * across the threads in turn, so a launcher keeping hundreds of clients alive
+ * needs only as many threads as it gives its loop instead of one per client.<p>
+ * <p>
+ * Note that {@link IPCListener} methods are called on the loop thread that read
+ * the event, so a listener that blocks holds up every IPCClient sharing that thread.
+ *
+ * @see IPCClient#setEventLoop(IPCEventLoop)
+ */
+public final class IPCEventLoop implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IPCEventLoop.class);
+    private static final AtomicInteger LOOP_COUNT = new AtomicInteger();
+    private final Worker[] workers;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    /**
+     * Constructs and starts an IPCEventLoop with a single thread.
+     *
+     * @throws IOException If a {@link Selector} could not be opened.
+     */
+    public IPCEventLoop() throws IOException {
+        this(1);
+    }
+
+    /**
+     * Constructs and starts an IPCEventLoop with the provided number of threads.
+     *
+     * @param threads The number of threads to read with.
+     * @throws IOException If a {@link Selector} could not be opened.
+     */
+    public IPCEventLoop(int threads) throws IOException {
+        if (threads < 1)
+            throw new IllegalArgumentException("An IPCEventLoop needs at least one thread!");
+        int id = LOOP_COUNT.incrementAndGet();
+        workers = new Worker[threads];
+        try {
+            for (int i = 0; i < threads; i++) {
+                workers[i] = new Worker(String.format("IPCEventLoop-%d-%d", id, i));
+                workers[i].thread.start();
+            }
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Gets the number of threads this IPCEventLoop reads with.
+     *
+     * @return The number of threads.
+     */
+    public int getThreadCount() {
+        return workers.length;
+    }
+
+    /**
+     * Stops this IPCEventLoop's threads.<br>
+     * Every IPCClient still being read by this loop is disconnected as if its
+     * connection was lost, and no IPCClient can start reading with it afterwards.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Worker worker : workers) {
+            if (worker != null)
+                worker.close();
+        }
+    }
+
+    /**
+     * Hands a connected {@link Pipe} to one of this loop's threads.
+     *
+     * @param client The IPCClient the pipe belongs to.
+     * @param pipe   The pipe to read from.
+     * @throws IllegalStateException If this loop has been closed.
+     */
+    void register(IPCClient client, Pipe pipe) {
+        if (closed)
+            throw new IllegalStateException("This IPCEventLoop has been closed!");
+        workers[Math.floorMod(next.getAndIncrement(), workers.length)].register(new Registration(client, pipe));
+    }
+
+    private static final class Registration {
+        private final IPCClient client;
+        private final Pipe pipe;
+
+        private Registration(IPCClient client, Pipe pipe) {
+            this.client = client;
+            this.pipe = pipe;
+        }
+    }
+
+    private static final class Worker implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Registration> pending = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+
+        private Worker(String name) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        private void register(Registration registration) {
+            pending.add(registration);
+            selector.wakeup();
+        }
+
+        private void close() {
+            running = false;
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    Registration registration;
+                    while ((registration = pending.poll()) != null)
+                        accept(registration);
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (key.isValid())
+                            read(key);
+                    }
+                }
+            } catch (IOException | ClosedSelectorException ex) {
+                LOGGER.error("IPCEventLoop thread encountered an exception and stopped", ex);
+            } finally {
+                // nothing reads these pipes anymore, so their clients are told they lost them
+                IOException stopped = new IOException("The IPCEventLoop reading this pipe was closed");
+                Registration registration;
+                while ((registration = pending.poll()) != null)
+                    fail(registration, null, stopped);
+                try {
+                    for (SelectionKey key : selector.keys())
+                        fail((Registration) key.attachment(), key, stopped);
+                } catch (ClosedSelectorException ex) {
+                    LOGGER.debug("Selector was closed before its pipes could be failed", ex);
+                }
+                try {
+                    selector.close();
+                } catch (IOException ex) {
+                    LOGGER.debug("Failed to close selector", ex);
+                }
+            }
+        }
+
+        private void accept(Registration registration) {
+            SelectableChannel channel = registration.pipe.getSelectableChannel();
+            try {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, registration);
+                // there may already be buffered frames that arrived before the registration
+                poll(registration, channel.keyFor(selector));
+            } catch (IOException | CancelledKeyException ex) {
+                fail(registration, channel.keyFor(selector), ex);
+            }
+        }
+
+        private void read(SelectionKey key) {
+            poll((Registration) key.attachment(), key);
+        }
+
+        private void poll(Registration registration, SelectionKey key) {
+            try {
+                Packet p;
+                while ((p = registration.pipe.poll()) != null) {
+                    if (p.getOp() == OpCode.CLOSE) {
+                        key.cancel();
+                        registration.client.handleClose(registration.pipe, p);
+                        return;
+                    }
+                    registration.client.handlePacket(p);
+                }
+            } catch (IOException | RuntimeException ex) {
+                // anything a listener or callback throws stops only this client, never the loop
+                if (!registration.pipe.getSelectableChannel().isOpen()) {
+                    key.cancel();
+                    return; // the client closed the pipe itself
+                }
+                fail(registration, key, ex);
+            }
+        }
+
+        /**
+         * Stops reading a pipe and disconnects its client, as if the connection was lost.
+         *
+         * @param registration The client and pipe.
+         * @param key          The pipe's key with this thread's selector, or {@code null} if it has none.
+         * @param ex           The reason.
+         */
+        private void fail(Registration registration, SelectionKey key, Exception ex) {
+            if (key != null)
+                key.cancel();
+            try {
+                registration.client.handleFailure(registration.pipe, ex);
+            } catch (RuntimeException e) {
+                LOGGER.error("Exception when handling the loss of a pipe: ", e);
+            }
+        }
+    }
+}
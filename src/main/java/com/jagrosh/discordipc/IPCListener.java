@@ -19,6 +19,8 @@ import com.google.gson.JsonObject;
 import com.jagrosh.discordipc.entities.Packet;
 import com.jagrosh.discordipc.entities.User;
 
+import java.time.Duration;
+
 /**
  * An implementable listener used to handle events caught by an {@link IPCClient}.<p>
  * <p>
@@ -87,6 +89,17 @@ public interface IPCListener {
     default void onReady(IPCClient client) {
     }
 
+    /**
+     * Fired whenever an {@link IPCClient} has automatically reconnected to Discord
+     * and sent its last Rich Presence and subscriptions again.
+     *
+     * @param client   The now reconnected IPCClient.
+     * @param downtime How long the IPCClient was disconnected.
+     * @see IPCClient#setReconnectPolicy(com.jagrosh.discordipc.entities.ReconnectPolicy)
+     */
+    default void onReconnect(IPCClient client, Duration downtime) {
+    }
+
     /**
      * Fired whenever an {@link IPCClient} has closed.
      *
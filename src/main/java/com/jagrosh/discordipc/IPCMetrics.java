@@ -0,0 +1,397 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.google.gson.JsonObject;
+import com.jagrosh.discordipc.entities.LatencyHistogram;
+import com.jagrosh.discordipc.entities.Packet;
+import com.jagrosh.discordipc.entities.Packet.OpCode;
+import com.jagrosh.discordipc.entities.User;
+import com.jagrosh.discordipc.entities.pipe.FrameBufferPool;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Counts what an {@link IPCClient} sends and receives, and times how long
+ * Discord takes to answer and how long listeners take to run.<p>
+ * <p>
+ * Recording never takes a lock or allocates once a command has been seen,
+ * so metrics are always on. Latencies are kept in histograms with a bucket per
+ * power of two microseconds, so percentiles are accurate to within a factor of two.
+ * Every IPCClient has one, which is {@link IPCClient#getMetrics() available}
+ * directly and over JMX as an {@link IPCMetricsMXBean}.
+ */
+public final class IPCMetrics implements IPCMetricsMXBean {
+    private static final OpCode[] OPS = OpCode.values();
+
+    private final AtomicLongArray framesSent = new AtomicLongArray(OPS.length);
+    private final AtomicLongArray framesReceived = new AtomicLongArray(OPS.length);
+    private final AtomicLongArray bytesSent = new AtomicLongArray(OPS.length);
+    private final AtomicLongArray bytesReceived = new AtomicLongArray(OPS.length);
+    private final Map<String, Histogram> latencies = new ConcurrentHashMap<>();
+    private final AtomicLong reconnects = new AtomicLong();
+    private final LongAdder listenerCalls = new LongAdder();
+    private final LongAdder listenerNanos = new LongAdder();
+    private final IntSupplier pendingRequests;
+    private final IntSupplier queuedWrites;
+
+    IPCMetrics(IntSupplier pendingRequests, IntSupplier queuedWrites) {
+        this.pendingRequests = pendingRequests;
+        this.queuedWrites = queuedWrites;
+    }
+
+    /**
+     * Records a frame written to Discord. Called by the library's pipes.
+     *
+     * @param op    The frame's {@link OpCode}.
+     * @param bytes The size of the frame, header included.
+     */
+    public void frameSent(OpCode op, int bytes) {
+        framesSent.incrementAndGet(op.ordinal());
+        bytesSent.addAndGet(op.ordinal(), bytes);
+    }
+
+    /**
+     * Records a frame read from Discord. Called by the library's pipes.
+     *
+     * @param op    The frame's {@link OpCode}.
+     * @param bytes The size of the frame, header included.
+     */
+    public void frameReceived(OpCode op, int bytes) {
+        framesReceived.incrementAndGet(op.ordinal());
+        bytesReceived.addAndGet(op.ordinal(), bytes);
+    }
+
+    void requestAnswered(String command, long nanos) {
+        Histogram histogram = latencies.get(command);
+        if (histogram == null)
+            histogram = latencies.computeIfAbsent(command, c -> new Histogram());
+        histogram.record(nanos);
+    }
+
+    void reconnected() {
+        reconnects.incrementAndGet();
+    }
+
+    void listenerRan(long nanos) {
+        listenerCalls.increment();
+        listenerNanos.add(nanos);
+    }
+
+    /**
+     * Wraps an {@link IPCListener} that is called inline so that the time spent in it
+     * is recorded. A {@link ListenerDispatcher} records it instead.
+     *
+     * @param listener The listener to time.
+     * @return The timing listener.
+     */
+    IPCListener timed(IPCListener listener) {
+        return new TimedListener(listener);
+    }
+
+    /**
+     * Gets the latency percentile of Discord's answers to a command.
+     *
+     * @param command    The command, such as {@code SET_ACTIVITY}.
+     * @param percentile The percentile, from {@code 0} to {@code 100}.
+     * @return The upper bound of the bucket the percentile falls in, or {@code null} if the command was never answered.
+     */
+    public Duration getRequestLatency(String command, double percentile) {
+        Histogram histogram = latencies.get(command);
+        return histogram == null || histogram.count.sum() == 0 ? null : Duration.ofNanos(histogram.percentile(percentile));
+    }
+
+    @Override
+    public long getFramesSent() {
+        return sum(framesSent);
+    }
+
+    @Override
+    public long getFramesReceived() {
+        return sum(framesReceived);
+    }
+
+    @Override
+    public long getBytesSent() {
+        return sum(bytesSent);
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return sum(bytesReceived);
+    }
+
+    @Override
+    public Map<String, Long> getFramesSentByOpCode() {
+        return byOpCode(framesSent);
+    }
+
+    @Override
+    public Map<String, Long> getFramesReceivedByOpCode() {
+        return byOpCode(framesReceived);
+    }
+
+    @Override
+    public Map<String, Long> getBytesSentByOpCode() {
+        return byOpCode(bytesSent);
+    }
+
+    @Override
+    public Map<String, Long> getBytesReceivedByOpCode() {
+        return byOpCode(bytesReceived);
+    }
+
+    @Override
+    public Map<String, Long> getRequestCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        latencies.forEach((command, histogram) -> counts.put(command, histogram.count.sum()));
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getRequestLatencyMeanMillis() {
+        return byCommand(h -> {
+            long count = h.count.sum();
+            return count == 0 ? 0 : h.total.sum() / (double) count;
+        });
+    }
+
+    @Override
+    public Map<String, Double> getRequestLatencyP50Millis() {
+        return byCommand(h -> h.percentile(50));
+    }
+
+    @Override
+    public Map<String, Double> getRequestLatencyP99Millis() {
+        return byCommand(h -> h.percentile(99));
+    }
+
+    @Override
+    public Map<String, Double> getRequestLatencyMaxMillis() {
+        return byCommand(h -> h.max.get());
+    }
+
+    @Override
+    public int getPendingRequests() {
+        return pendingRequests.getAsInt();
+    }
+
+    @Override
+    public int getQueuedWrites() {
+        return queuedWrites.getAsInt();
+    }
+
+    @Override
+    public long getReconnectCount() {
+        return reconnects.get();
+    }
+
+    @Override
+    public long getBufferPoolUsedBytes() {
+        return FrameBufferPool.shared().getUsedBytes();
+    }
+
+    @Override
+    public long getBufferPoolAllocatedBytes() {
+        return FrameBufferPool.shared().getAllocatedBytes();
+    }
+
+    @Override
+    public long getBufferPoolCapacity() {
+        return FrameBufferPool.shared().getCapacity();
+    }
+
+    @Override
+    public long getBufferPoolMisses() {
+        return FrameBufferPool.shared().getMisses();
+    }
+
+    @Override
+    public long getListenerCalls() {
+        return listenerCalls.sum();
+    }
+
+    @Override
+    public double getListenerTimeMillis() {
+        return listenerNanos.sum() / 1e6;
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < OPS.length; i++) {
+            framesSent.set(i, 0);
+            framesReceived.set(i, 0);
+            bytesSent.set(i, 0);
+            bytesReceived.set(i, 0);
+        }
+        latencies.clear();
+        reconnects.set(0);
+        listenerCalls.reset();
+        listenerNanos.reset();
+    }
+
+    private static long sum(AtomicLongArray counters) {
+        long total = 0;
+        for (int i = 0; i < counters.length(); i++)
+            total += counters.get(i);
+        return total;
+    }
+
+    private static Map<String, Long> byOpCode(AtomicLongArray counters) {
+        Map<String, Long> map = new TreeMap<>();
+        for (OpCode op : OPS)
+            map.put(op.name(), counters.get(op.ordinal()));
+        return map;
+    }
+
+    /**
+     * Maps every command to a statistic of its histogram, converted from nanoseconds to milliseconds.
+     */
+    private Map<String, Double> byCommand(ToDoubleFunction<Histogram> statistic) {
+        Map<String, Double> map = new TreeMap<>();
+        latencies.forEach((command, histogram) -> map.put(command, statistic.applyAsDouble(histogram) / 1e6));
+        return map;
+    }
+
+    /**
+     * A latency histogram with the same buckets as {@link LatencyHistogram#getBuckets()},
+     * recorded into without locking.
+     */
+    private static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        private void record(long nanos) {
+            buckets.incrementAndGet(LatencyHistogram.bucket(nanos));
+            count.increment();
+            total.add(nanos);
+            long m;
+            while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) {
+                // retry until this is no longer the max, or is recorded as it
+            }
+        }
+
+        /**
+         * Gets the upper bound of the bucket a percentile falls in, capped at the maximum.
+         */
+        private long percentile(double percentile) {
+            long count = 0;
+            long[] snapshot = new long[buckets.length()];
+            for (int i = 0; i < snapshot.length; i++)
+                count += snapshot[i] = buckets.get(i);
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            for (int i = 0; i < snapshot.length; i++) {
+                rank -= snapshot[i];
+                if (rank <= 0)
+                    return Math.min(max.get(), (2000L << i) - 1);
+            }
+            return max.get();
+        }
+    }
+
+    /**
+     * Times every call into the listener it wraps, except packet events it leaves
+     * at their default, which would otherwise be counted for every frame.
+     */
+    private final class TimedListener implements IPCListener {
+        private final IPCListener listener;
+        private final boolean packetsSent;
+        private final boolean packetsReceived;
+
+        private TimedListener(IPCListener listener) {
+            this.listener = listener;
+            this.packetsSent = ListenerDispatcher.handlesPacketSent(listener);
+            this.packetsReceived = ListenerDispatcher.handlesPacketReceived(listener);
+        }
+
+        @Override
+        public void onPacketSent(IPCClient client, Packet packet) {
+            if (!packetsSent)
+                return;
+            long start = System.nanoTime();
+            listener.onPacketSent(client, packet);
+            listenerRan(System.nanoTime() - start);
+        }
+
+        @Override
+        public void onPacketReceived(IPCClient client, Packet packet) {
+            if (!packetsReceived)
+                return;
+            long start = System.nanoTime();
+            listener.onPacketReceived(client, packet);
+            listenerRan(System.nanoTime() - start);
+        }
+
+        @Override
+        public void onActivityJoin(IPCClient client, String secret) {
+            long start = System.nanoTime();
+            listener.onActivityJoin(client, secret);
+            listenerRan(System.nanoTime() - start);
+        }
+
+        @Override
+        public void onActivitySpectate(IPCClient client, String secret) {
+            long start = System.nanoTime();
+            listener.onActivitySpectate(client, secret);
+            listenerRan(System.nanoTime() - start);
+        }
+
+        @Override
+        public void onActivityJoinRequest(IPCClient client, String secret, User user) {
+            long start = System.nanoTime();
+            listener.onActivityJoinRequest(client, secret, user);
+            listenerRan(System.nanoTime() - start);
+        }
+
+        @Override
+        public void onReady(IPCClient client) {
+            long start = System.nanoTime();
+            listener.onReady(client);
+            listenerRan(System.nanoTime() - start);
+        }
+
+        @Override
+        public void onReconnect(IPCClient client, Duration downtime) {
+            long start = System.nanoTime();
+            listener.onReconnect(client, downtime);
+            listenerRan(System.nanoTime() - start);
+        }
+
+        @Override
+        public void onClose(IPCClient client, JsonObject json) {
+            long start = System.nanoTime();
+            listener.onClose(client, json);
+            listenerRan(System.nanoTime() - start);
+        }
+
+        @Override
+        public void onDisconnect(IPCClient client, Throwable t) {
+            long start = System.nanoTime();
+            listener.onDisconnect(client, t);
+            listenerRan(System.nanoTime() - start);
+        }
+    }
+}
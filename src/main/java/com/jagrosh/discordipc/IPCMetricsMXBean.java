@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link IPCMetrics}, under which every connected
+ * {@link IPCClient} is registered with the platform MBean server as
+ * {@code com.jagrosh.discordipc:type=IPCClient,clientId=<id>,instance=<n>}.<p>
+ * <p>
+ * Maps are keyed by {@link com.jagrosh.discordipc.entities.Packet.OpCode OpCode}
+ * name or command name, and times are in milliseconds.
+ */
+public interface IPCMetricsMXBean {
+
+    long getFramesSent();
+
+    long getFramesReceived();
+
+    long getBytesSent();
+
+    long getBytesReceived();
+
+    Map<String, Long> getFramesSentByOpCode();
+
+    Map<String, Long> getFramesReceivedByOpCode();
+
+    Map<String, Long> getBytesSentByOpCode();
+
+    Map<String, Long> getBytesReceivedByOpCode();
+
+    /**
+     * Gets the number of answered requests by command.
+     */
+    Map<String, Long> getRequestCounts();
+
+    Map<String, Double> getRequestLatencyMeanMillis();
+
+    Map<String, Double> getRequestLatencyP50Millis();
+
+    Map<String, Double> getRequestLatencyP99Millis();
+
+    Map<String, Double> getRequestLatencyMaxMillis();
+
+    int getPendingRequests();
+
+    int getQueuedWrites();
+
+    long getReconnectCount();
+
+    /**
+     * Gets the direct memory of the frame buffer pool, which all clients share, in use right now.
+     */
+    long getBufferPoolUsedBytes();
+
+    /**
+     * Gets the direct memory the frame buffer pool has allocated, whether in use or free.
+     */
+    long getBufferPoolAllocatedBytes();
+
+    long getBufferPoolCapacity();
+
+    /**
+     * Gets the number of frames handled on the heap because the frame buffer pool couldn't serve them.
+     */
+    long getBufferPoolMisses();
+
+    /**
+     * Gets the number of calls into listeners and event handlers.
+     */
+    long getListenerCalls();
+
+    /**
+     * Gets the total time spent in listeners and event handlers.
+     */
+    double getListenerTimeMillis();
+
+    /**
+     * Zeroes this client's counters and histograms. The shared buffer pool's are left alone.
+     */
+    void reset();
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.google.gson.JsonObject;
+import com.jagrosh.discordipc.entities.Packet;
+import com.jagrosh.discordipc.entities.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Hands {@link IPCListener} events to an {@link Executor} through a bounded queue,
+ * so a slow listener never holds up the thread reading from or writing to Discord.<p>
+ * <p>
+ * Events are delivered one at a time and in the order they happened, even if the
+ * executor has many threads. When the queue is full, the {@link OverflowPolicy}
+ * decides what gives. Connection lifecycle events ({@code onReady}, {@code onReconnect},
+ * {@code onClose} and {@code onDisconnect}) are never dropped or coalesced, and are
+ * queued even past the capacity.<p>
+ * <p>
+ * One dispatcher can be shared by any number of {@link IPCClient IPCClients}.
+ *
+ * @see IPCClient#setListenerDispatcher(ListenerDispatcher)
+ */
+public final class ListenerDispatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ListenerDispatcher.class);
+
+    private final Executor executor;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<Event> queue = new ArrayDeque<>();
+    private boolean draining = false;
+    private volatile Thread drainThread = null;
+
+    private final AtomicLong dispatched = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong totalLag = new AtomicLong();
+    private volatile long lastLag = 0;
+    private volatile long maxLag = 0;
+    private volatile int maxDepth = 0;
+
+    /**
+     * Constructs a new ListenerDispatcher.
+     *
+     * @param executor The {@link Executor} to run listeners on.
+     * @param capacity The number of events that may wait to be delivered.
+     * @param policy   What to do with events once {@code capacity} are waiting.
+     */
+    public ListenerDispatcher(Executor executor, int capacity, OverflowPolicy policy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive!");
+        this.executor = executor;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Wraps an {@link IPCListener} so that all of its events go through this dispatcher.
+     *
+     * @param listener The listener to deliver events to.
+     * @return The wrapping listener.
+     */
+    public IPCListener wrap(IPCListener listener) {
+        return new Wrapper(listener);
+    }
+
+    /**
+     * Gets the number of events waiting to be delivered.
+     *
+     * @return The current queue depth.
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the most events that were ever waiting to be delivered at once.
+     *
+     * @return The highest queue depth.
+     */
+    public int getMaxQueueDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Gets the number of events delivered so far.
+     *
+     * @return The number of delivered events.
+     */
+    public long getDispatchedCount() {
+        return dispatched.get();
+    }
+
+    /**
+     * Gets the number of events dropped because the queue was full.
+     *
+     * @return The number of dropped events.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Gets the number of events replaced by a newer event of the same type
+     * because the queue was full.
+     *
+     * @return The number of coalesced events.
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * Gets how long the last delivered event waited in the queue.
+     *
+     * @return The dispatch lag of the last event.
+     */
+    public Duration getLastDispatchLag() {
+        return Duration.ofNanos(lastLag);
+    }
+
+    /**
+     * Gets the longest any delivered event waited in the queue.
+     *
+     * @return The highest dispatch lag.
+     */
+    public Duration getMaxDispatchLag() {
+        return Duration.ofNanos(maxLag);
+    }
+
+    /**
+     * Gets how long delivered events waited in the queue on average.
+     *
+     * @return The average dispatch lag.
+     */
+    public Duration getAverageDispatchLag() {
+        long count = dispatched.get();
+        return Duration.ofNanos(count == 0 ? 0 : totalLag.get() / count);
+    }
+
+    /**
+     * Gets whether a listener does anything with {@link IPCListener#onPacketSent},
+     * so that sent packets needn't be made for it otherwise.
+     */
+    static boolean handlesPacketSent(IPCListener listener) {
+        return Type.PACKET_SENT.isHandledBy(listener);
+    }
+
+    /**
+     * Gets whether a listener does anything with {@link IPCListener#onPacketReceived}.
+     */
+    static boolean handlesPacketReceived(IPCListener listener) {
+        return Type.PACKET_RECEIVED.isHandledBy(listener);
+    }
+
+    private void post(Type type, IPCClient client, Consumer<IPCListener> call, IPCListener target) {
+        Event event = new Event(type, client, call, target);
+        boolean start;
+        lock.lock();
+        try {
+            if (queue.size() >= capacity && !type.lifecycle && !overflow(event))
+                return;
+            queue.add(event);
+            if (queue.size() > maxDepth)
+                maxDepth = queue.size();
+            start = !draining;
+            draining = true;
+        } finally {
+            lock.unlock();
+        }
+        if (start)
+            schedule();
+    }
+
+    /**
+     * Makes room for an event when the queue is full.
+     *
+     * @return {@code true} if the event should still be queued.
+     */
+    private boolean overflow(Event event) {
+        switch (policy) {
+            case BLOCK:
+                // the listener's own thread can't wait for itself to make room
+                if (Thread.currentThread() == drainThread)
+                    return true;
+                while (queue.size() >= capacity) {
+                    try {
+                        notFull.await();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        dropped.incrementAndGet();
+                        return false;
+                    }
+                }
+                return true;
+
+            case COALESCE:
+                for (Iterator<Event> it = queue.descendingIterator(); it.hasNext(); ) {
+                    Event queued = it.next();
+                    if (queued.type == event.type && queued.client == event.client) {
+                        it.remove();
+                        coalesced.incrementAndGet();
+                        return true;
+                    }
+                }
+                // nothing to coalesce with, so fall back to dropping the oldest
+                return dropOldest();
+
+            case DROP_OLDEST:
+            default:
+                return dropOldest();
+        }
+    }
+
+    private boolean dropOldest() {
+        for (Iterator<Event> it = queue.iterator(); it.hasNext(); ) {
+            if (!it.next().type.lifecycle) {
+                it.remove();
+                dropped.incrementAndGet();
+                return true;
+            }
+        }
+        return true; // only lifecycle events are waiting, those are never dropped
+    }
+
+    private void schedule() {
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException ex) {
+            LOGGER.error("Listener executor rejected dispatching events", ex);
+            lock.lock();
+            try {
+                dropped.addAndGet(queue.size());
+                queue.clear();
+                draining = false;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void drain() {
+        drainThread = Thread.currentThread();
+        try {
+            while (true) {
+                Event event;
+                lock.lock();
+                try {
+                    event = queue.poll();
+                    if (event == null) {
+                        draining = false;
+                        return;
+                    }
+                    notFull.signal();
+                } finally {
+                    lock.unlock();
+                }
+                long lag = System.nanoTime() - event.queuedAt;
+                lastLag = lag;
+                if (lag > maxLag)
+                    maxLag = lag;
+                totalLag.addAndGet(lag);
+                long start = System.nanoTime();
+                try {
+                    event.call.accept(event.target);
+                } catch (RuntimeException ex) {
+                    LOGGER.error("Exception in listener: ", ex);
+                }
+                event.client.getMetrics().listenerRan(System.nanoTime() - start);
+                dispatched.incrementAndGet();
+            }
+        } finally {
+            drainThread = null;
+        }
+    }
+
+    /**
+     * What a {@link ListenerDispatcher} does with a new event when its queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The thread raising the event waits until there is room. This holds
+         * up the connection the same way a slow listener would without dispatching,
+         * but events are never lost.
+         */
+        BLOCK,
+        /**
+         * The oldest waiting event is dropped to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * The newest waiting event of the same type and {@link IPCClient} is dropped
+         * in favour of the new one. If there is none, the oldest waiting event is.
+         */
+        COALESCE
+    }
+
+    private enum Type {
+        PACKET_SENT(false, "onPacketSent", IPCClient.class, Packet.class),
+        PACKET_RECEIVED(false, "onPacketReceived", IPCClient.class, Packet.class),
+        ACTIVITY_JOIN(false, "onActivityJoin", IPCClient.class, String.class),
+        ACTIVITY_SPECTATE(false, "onActivitySpectate", IPCClient.class, String.class),
+        ACTIVITY_JOIN_REQUEST(false, "onActivityJoinRequest", IPCClient.class, String.class, User.class),
+        READY(true, "onReady", IPCClient.class),
+        RECONNECT(true, "onReconnect", IPCClient.class, Duration.class),
+        CLOSE(true, "onClose", IPCClient.class, JsonObject.class),
+        DISCONNECT(true, "onDisconnect", IPCClient.class, Throwable.class);
+
+        private final boolean lifecycle;
+        private final String method;
+        private final Class<?>[] parameters;
+
+        Type(boolean lifecycle, String method, Class<?>... parameters) {
+            this.lifecycle = lifecycle;
+            this.method = method;
+            this.parameters = parameters;
+        }
+
+        /**
+         * Gets whether a listener does anything with this type of event, which it
+         * doesn't if it leaves the method at its default in {@link IPCListener}.
+         */
+        private boolean isHandledBy(IPCListener listener) {
+            try {
+                return listener.getClass().getMethod(method, parameters).getDeclaringClass() != IPCListener.class;
+            } catch (NoSuchMethodException ex) {
+                return true;
+            }
+        }
+    }
+
+    private static final class Event {
+        private final Type type;
+        private final IPCClient client;
+        private final Consumer<IPCListener> call;
+        private final IPCListener target;
+        private final long queuedAt = System.nanoTime();
+
+        private Event(Type type, IPCClient client, Consumer<IPCListener> call, IPCListener target) {
+            this.type = type;
+            this.client = client;
+            this.call = call;
+            this.target = target;
+        }
+    }
+
+    private final class Wrapper implements IPCListener {
+        private final IPCListener listener;
+        // events the listener leaves at their default aren't worth a place in the queue
+        private final boolean[] handled = new boolean[Type.values().length];
+
+        private Wrapper(IPCListener listener) {
+            this.listener = listener;
+            for (Type type : Type.values())
+                handled[type.ordinal()] = type.isHandledBy(listener);
+        }
+
+        private void post(Type type, IPCClient client, Consumer<IPCListener> call) {
+            if (handled[type.ordinal()])
+                ListenerDispatcher.this.post(type, client, call, listener);
+        }
+
+        @Override
+        public void onPacketSent(IPCClient client, Packet packet) {
+            post(Type.PACKET_SENT, client, l -> l.onPacketSent(client, packet));
+        }
+
+        @Override
+        public void onPacketReceived(IPCClient client, Packet packet) {
+            post(Type.PACKET_RECEIVED, client, l -> l.onPacketReceived(client, packet));
+        }
+
+        @Override
+        public void onActivityJoin(IPCClient client, String secret) {
+            post(Type.ACTIVITY_JOIN, client, l -> l.onActivityJoin(client, secret));
+        }
+
+        @Override
+        public void onActivitySpectate(IPCClient client, String secret) {
+            post(Type.ACTIVITY_SPECTATE, client, l -> l.onActivitySpectate(client, secret));
+        }
+
+        @Override
+        public void onActivityJoinRequest(IPCClient client, String secret, User user) {
+            post(Type.ACTIVITY_JOIN_REQUEST, client, l -> l.onActivityJoinRequest(client, secret, user));
+        }
+
+        @Override
+        public void onReady(IPCClient client) {
+            post(Type.READY, client, l -> l.onReady(client));
+        }
+
+        @Override
+        public void onReconnect(IPCClient client, Duration downtime) {
+            post(Type.RECONNECT, client, l -> l.onReconnect(client, downtime));
+        }
+
+        @Override
+        public void onClose(IPCClient client, JsonObject json) {
+            post(Type.CLOSE, client, l -> l.onClose(client, json));
+        }
+
+        @Override
+        public void onDisconnect(IPCClient client, Throwable t) {
+            post(Type.DISCONNECT, client, l -> l.onDisconnect(client, t));
+        }
+    }
+}
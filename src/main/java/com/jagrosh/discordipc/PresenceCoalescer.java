@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.jagrosh.discordipc.entities.Callback;
+import com.jagrosh.discordipc.entities.RichPresence;
+import com.jagrosh.discordipc.entities.pipe.PipeStatus;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the latest {@link RichPresence} an {@link IPCClient} was asked to send
+ * until its {@link TokenBucket} allows another update.<p>
+ * <p>
+ * Only one update is ever waiting. A newer one replaces it, and the
+ * {@link Callback} of the replaced update is {@link Callback#supersede() superseded}
+ * without the presence ever being serialized.
+ */
+final class PresenceCoalescer {
+    private final IPCClient client;
+    private final TokenBucket bucket;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicReference<Update> slot = new AtomicReference<>();
+    private boolean scheduled = false; // guarded by this
+
+    PresenceCoalescer(IPCClient client, TokenBucket bucket, ScheduledExecutorService scheduler) {
+        this.client = client;
+        this.bucket = bucket;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Replaces the waiting update and sends it as soon as the rate limit allows.
+     *
+     * @param presence The presence to send, or {@code null} to clear it.
+     * @param callback The callback for the update, or {@code null}.
+     */
+    void submit(RichPresence presence, Callback callback) {
+        Update previous = slot.getAndSet(new Update(presence, callback));
+        if (previous != null && previous.callback != null)
+            previous.callback.supersede();
+        flush();
+    }
+
+    /**
+     * Sends the waiting update if there is one, the client is connected and
+     * a token is available. Otherwise, schedules another try for when the
+     * next token is due.
+     */
+    synchronized void flush() {
+        if (scheduled || slot.get() == null || client.getStatus() != PipeStatus.CONNECTED)
+            return;
+        long wait = bucket.tryAcquire();
+        if (wait > 0) {
+            scheduled = true;
+            scheduler.schedule(() -> {
+                synchronized (this) {
+                    scheduled = false;
+                }
+                flush();
+            }, wait, TimeUnit.NANOSECONDS);
+            return;
+        }
+        Update update = slot.getAndSet(null);
+        if (update != null)
+            client.sendRichPresenceNow(update.presence, update.callback);
+    }
+
+    /**
+     * Gets whether an update is waiting to be sent.
+     *
+     * @return {@code true} if an update is waiting.
+     */
+    boolean hasPending() {
+        return slot.get() != null;
+    }
+
+    /**
+     * Drops the waiting update, superseding its callback.
+     */
+    void supersede() {
+        Update update = slot.getAndSet(null);
+        if (update != null && update.callback != null)
+            update.callback.supersede();
+    }
+
+    /**
+     * Drops the waiting update, failing its callback.
+     *
+     * @param reason The failure message for the callback.
+     */
+    void cancel(String reason) {
+        Update update = slot.getAndSet(null);
+        if (update != null && update.callback != null)
+            update.callback.fail(reason);
+    }
+
+    private static final class Update {
+        private final RichPresence presence;
+        private final Callback callback;
+
+        private Update(RichPresence presence, Callback callback) {
+            this.presence = presence;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link Executor Executors} to run an {@link IPCClient IPCClient's} read loop on.<p>
+ * <p>
+ * The read loop blocks on the pipe for as long as the client is connected, so the
+ * executor must give each loop a thread of its own, such as a new thread per task
+ * or a pool with at least as many threads as there are clients.
+ *
+ * @see IPCClient#setReadExecutor(Executor)
+ * @see IPCClient#setDefaultReadExecutor(Executor)
+ */
+public final class ReadExecutors {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadExecutors.class);
+    private static final ThreadFactory VIRTUAL_THREADS = virtualThreadFactory();
+
+    private ReadExecutors() {
+    }
+
+    /**
+     * Gets an Executor that starts a new thread from the provided factory for every read loop.
+     *
+     * @param factory The {@link ThreadFactory} to make threads with.
+     * @return The Executor.
+     */
+    public static Executor threadPerConnection(ThreadFactory factory) {
+        return task -> factory.newThread(task).start();
+    }
+
+    /**
+     * Gets an Executor that starts a new daemon thread named {@code <prefix>-N} for every read loop.
+     *
+     * @param prefix The prefix of the thread names.
+     * @return The Executor.
+     */
+    public static Executor daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return threadPerConnection(task -> {
+            Thread thread = new Thread(task, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Gets an Executor that runs every read loop on a virtual thread of its own.<p>
+     * <p>
+     * A blocked read then parks the virtual thread instead of holding on to an
+     * operating system thread. Virtual threads need Java 21 or newer. On older
+     * versions this falls back to {@link #daemonThreads(String) daemon threads}.
+     *
+     * @return The Executor.
+     * @see #isVirtualThreadSupported()
+     */
+    public static Executor virtualThreads() {
+        if (VIRTUAL_THREADS == null) {
+            LOGGER.warn("Virtual threads need Java 21 or newer, reading on daemon threads instead");
+            return daemonThreads("IPCClient-Reader");
+        }
+        return threadPerConnection(VIRTUAL_THREADS);
+    }
+
+    /**
+     * Gets whether this JVM can run read loops on virtual threads.
+     *
+     * @return {@code true} on Java 21 or newer.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VIRTUAL_THREADS != null;
+    }
+
+    /**
+     * Looks up {@code Thread.ofVirtual().name("IPCClient-Reader-", 0).factory()}
+     * reflectively, since this library still runs on Java versions without it.
+     *
+     * @return The factory, or {@code null} if virtual threads are unavailable.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "IPCClient-Reader-", 0L);
+            Method factory = builderType.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // missing before Java 19 and a preview feature until 21, either way not usable here
+            return null;
+        }
+    }
+}
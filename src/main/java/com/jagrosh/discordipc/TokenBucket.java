@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket allowing a burst of {@code capacity} actions, with
+ * one more token becoming available every {@code period / capacity}.
+ */
+final class TokenBucket {
+    private final int capacity;
+    private final long refillNanos;
+    private int tokens;
+    private long lastRefill;
+
+    /**
+     * @param capacity The number of actions allowed per period.
+     * @param period   The period, in milliseconds.
+     */
+    TokenBucket(int capacity, long period) {
+        if (capacity < 1 || period < 1)
+            throw new IllegalArgumentException("A token bucket needs a positive capacity and period!");
+        this.capacity = capacity;
+        this.refillNanos = TimeUnit.MILLISECONDS.toNanos(period) / capacity;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @return {@code 0} if a token was taken, otherwise the nanoseconds until the next one is available.
+     */
+    synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        long refills = (now - lastRefill) / refillNanos;
+        if (refills > 0) {
+            tokens = (int) Math.min(capacity, tokens + refills);
+            lastRefill = tokens == capacity ? now : lastRefill + refills * refillNanos;
+        }
+        if (tokens > 0) {
+            tokens--;
+            return 0;
+        }
+        return refillNanos - (now - lastRefill);
+    }
+}
@@ -28,6 +28,7 @@ import java.util.function.Consumer;
 public class Callback {
     private final Consumer<Packet> success;
     private final Consumer<String> failure;
+    private final Runnable superseded;
 
     /**
      * Constructs an empty Callback.
@@ -56,8 +57,23 @@ public class Callback {
      * @param failure The Consumer to launch if the process has an error.
      */
     public Callback(Consumer<Packet> success, Consumer<String> failure) {
+        this(success, failure, null);
+    }
+
+    /**
+     * Constructs a Callback with a success {@link Consumer}, a failure
+     * {@link Consumer} <i>and</i> a {@link Runnable} that occurs when the
+     * process it is attached to is dropped in favour of a newer one before
+     * it was ever sent, such as a coalesced Rich Presence update.
+     *
+     * @param success    The Consumer to launch after a successful process.
+     * @param failure    The Consumer to launch if the process has an error.
+     * @param superseded The Runnable to launch if the process is superseded.
+     */
+    public Callback(Consumer<Packet> success, Consumer<String> failure, Runnable superseded) {
         this.success = success;
         this.failure = failure;
+        this.superseded = superseded;
     }
 
     /**
@@ -79,8 +95,8 @@ public class Callback {
 
     /**
      * Gets whether or not this Callback is "empty" which is more precisely
-     * defined as not having a specified success {@link Consumer} and/or a
-     * failure {@link Consumer}.<br>
+     * defined as not having a specified success {@link Consumer}, failure
+     * {@link Consumer} or superseded {@link Runnable}.<br>
      * This is only true if the Callback is constructed with the parameter-less
      * constructor ({@link #Callback()}) or another constructor that leaves
      * one or both parameters {@code null}.
@@ -88,7 +104,7 @@ public class Callback {
      * @return {@code true} if and only if the
      */
     public boolean isEmpty() {
-        return success == null && failure == null;
+        return success == null && failure == null && superseded == null;
     }
 
     /**
@@ -109,4 +125,12 @@ public class Callback {
         if (failure != null)
             failure.accept(message);
     }
+
+    /**
+     * Launches the superseded {@link Runnable}.
+     */
+    public void supersede() {
+        if (superseded != null)
+            superseded.run();
+    }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * A rolling histogram of the latest latencies recorded, such as the round trip
+ * times of an {@link com.jagrosh.discordipc.IPCClient IPCClient's} heartbeats.<p>
+ * <p>
+ * Only the latest {@code window} samples are kept, and every statistic is over
+ * those, except for {@link #getCount()}. Samples are kept as they are, so
+ * percentiles are exact. It is safe to record and read from different threads.
+ *
+ * @see com.jagrosh.discordipc.IPCClient#getRoundTripTimes()
+ */
+public final class LatencyHistogram {
+    private final long[] samples;
+    private int next = 0;
+    private long count = 0;
+
+    /**
+     * Constructs a new, empty LatencyHistogram.
+     *
+     * @param window The number of latest samples to keep.
+     */
+    public LatencyHistogram(int window) {
+        if (window <= 0)
+            throw new IllegalArgumentException("Window must be positive!");
+        this.samples = new long[window];
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos The latency, in nanoseconds.
+     */
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        count++;
+    }
+
+    /**
+     * Gets the number of latencies ever recorded, including those no longer in the window.
+     *
+     * @return The number of recorded latencies.
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the latest latency recorded.
+     *
+     * @return The latest latency, or {@code null} if none has been recorded.
+     */
+    public synchronized Duration getLast() {
+        return count == 0 ? null : Duration.ofNanos(samples[(next + samples.length - 1) % samples.length]);
+    }
+
+    /**
+     * Gets the average of the latencies in the window.
+     *
+     * @return The mean latency, or {@code null} if none has been recorded.
+     */
+    public Duration getMean() {
+        long[] window = window();
+        if (window.length == 0)
+            return null;
+        long total = 0;
+        for (long sample : window)
+            total += sample;
+        return Duration.ofNanos(total / window.length);
+    }
+
+    /**
+     * Gets the latency that the provided share of the window is at or below.
+     *
+     * @param percentile The percentile, from {@code 0} for the minimum to {@code 100} for the maximum.
+     * @return The latency at that percentile, or {@code null} if none has been recorded.
+     */
+    public Duration getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("Percentile must be between 0 and 100!");
+        long[] window = window();
+        if (window.length == 0)
+            return null;
+        Arrays.sort(window);
+        int index = (int) Math.ceil(percentile / 100 * window.length) - 1;
+        return Duration.ofNanos(window[Math.max(index, 0)]);
+    }
+
+    /**
+     * Counts the latencies in the window by power of two microseconds. Bucket {@code i}
+     * counts latencies from 2<sup>i</sup> up to 2<sup>i+1</sup> microseconds, except
+     * that the first also counts anything under a microsecond.
+     *
+     * @return The count of each bucket, up to the highest one that isn't empty.
+     */
+    public long[] getBuckets() {
+        long[] buckets = new long[64];
+        int highest = -1;
+        for (long sample : window()) {
+            int bucket = bucket(sample);
+            buckets[bucket]++;
+            highest = Math.max(highest, bucket);
+        }
+        return Arrays.copyOf(buckets, highest + 1);
+    }
+
+    /**
+     * Gets the bucket {@link #getBuckets()} counts a latency in.
+     *
+     * @param nanos The latency, in nanoseconds.
+     * @return The bucket, from {@code 0} to {@code 63}.
+     */
+    public static int bucket(long nanos) {
+        long micros = nanos / 1000;
+        return micros <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(micros);
+    }
+
+    /**
+     * Forgets every recorded latency.
+     */
+    public synchronized void reset() {
+        next = 0;
+        count = 0;
+    }
+
+    private synchronized long[] window() {
+        return Arrays.copyOf(samples, (int) Math.min(count, samples.length));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LatencyHistogram{count=%d, p50=%s, p99=%s, max=%s}",
+                getCount(), getPercentile(50), getPercentile(99), getPercentile(100));
+    }
+}
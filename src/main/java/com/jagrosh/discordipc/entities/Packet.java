@@ -15,9 +15,13 @@
  */
 package com.jagrosh.discordipc.entities;
 
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * A data-packet received from Discord via an {@link com.jagrosh.discordipc.IPCClient IPCClient}.<br>
@@ -26,8 +30,11 @@ import java.nio.ByteBuffer;
  * @author John Grosh (john.a.grosh@gmail.com)
  */
 public class Packet {
+    private static final JsonParser PARSER = new JsonParser();
     private final OpCode op;
-    private final JsonObject data;
+    private final byte[] payload;
+    private volatile JsonObject data;
+    private volatile Routing routing;
 
     /**
      * Constructs a new Packet using an {@link OpCode} and {@link JsonObject}.
@@ -37,16 +44,32 @@ public class Packet {
      */
     public Packet(OpCode op, JsonObject data) {
         this.op = op;
+        this.payload = null;
         this.data = data;
     }
 
+    /**
+     * Constructs a new Packet using an {@link OpCode} and a payload that is
+     * already encoded as UTF-8 JSON.<br>
+     * The payload is only parsed if {@link #getJson()} is called, the
+     * {@link #getCommand() cmd}, {@link #getEventName() evt} and {@link #getNonce() nonce}
+     * are found with a quick scan of its top level instead.
+     *
+     * @param op      The OpCode value of this new Packet.
+     * @param payload The UTF-8 JSON payload of this new Packet, which must not be modified afterwards.
+     */
+    public Packet(OpCode op, byte[] payload) {
+        this.op = op;
+        this.payload = payload;
+    }
+
     /**
      * Converts this {@link Packet} to a {@code byte} array.
      *
      * @return This Packet as a {@code byte} array.
      */
     public byte[] toBytes() {
-        byte[] d = data.toString().getBytes();
+        byte[] d = payload != null ? payload : data.toString().getBytes(StandardCharsets.UTF_8);
         ByteBuffer packet = ByteBuffer.allocate(d.length + 2 * Integer.BYTES);
         packet.putInt(Integer.reverseBytes(op.ordinal()));
         packet.putInt(Integer.reverseBytes(d.length));
@@ -69,12 +92,295 @@ public class Packet {
      * @return The JSONObject value of this Packet.
      */
     public JsonObject getJson() {
-        return data;
+        JsonObject json = data;
+        if (json == null && payload != null) {
+            json = PARSER.parse(new Utf8Reader(payload)).getAsJsonObject();
+            data = json;
+        }
+        return json;
+    }
+
+    /**
+     * Gets the {@code cmd} of this {@link Packet}, without parsing the rest of it.
+     *
+     * @return The command, or {@code null} if there is none.
+     * @throws JsonParseException If the payload is not a valid JSON object.
+     */
+    public String getCommand() {
+        return routing().cmd;
+    }
+
+    /**
+     * Gets the {@code evt} of this {@link Packet}, without parsing the rest of it.
+     *
+     * @return The name of the event, or {@code null} if there is none.
+     * @throws JsonParseException If the payload is not a valid JSON object.
+     */
+    public String getEventName() {
+        return routing().evt;
+    }
+
+    /**
+     * Gets the {@code nonce} of this {@link Packet}, without parsing the rest of it.
+     *
+     * @return The nonce, or {@code null} if there is none.
+     * @throws JsonParseException If the payload is not a valid JSON object.
+     */
+    public String getNonce() {
+        return routing().nonce();
+    }
+
+    /**
+     * Gets the {@code nonce} of this {@link Packet} as a number, as sent by pipes
+     * that number their requests. This never builds the nonce as a String.
+     *
+     * @return The nonce, or {@code -1} if there is none or it isn't a plain positive number.
+     * @throws JsonParseException If the payload is not a valid JSON object.
+     */
+    public long getNonceAsLong() {
+        return routing().numericNonce;
+    }
+
+    private Routing routing() {
+        Routing r = routing;
+        if (r == null) {
+            if (payload != null)
+                r = Routing.scan(payload);
+            // the scanner gives up on anything unusual, the full parse decides then
+            if (r == null)
+                r = Routing.of(getJson());
+            routing = r;
+        }
+        return r;
     }
 
     @Override
     public String toString() {
-        return "Pkt:" + getOp() + getJson().toString();
+        return "Pkt:" + getOp() + (payload != null ? new String(payload, StandardCharsets.UTF_8) : String.valueOf(getJson()));
+    }
+
+    /**
+     * The keys Discord's replies and events are told apart by.
+     */
+    private static final class Routing {
+        private static final Routing NONE = new Routing(null, null, null, null, -1, -1);
+        private static final byte[] CMD = {'c', 'm', 'd'};
+        private static final byte[] EVT = {'e', 'v', 't'};
+        private static final byte[] NONCE = {'n', 'o', 'n', 'c', 'e'};
+
+        private final String cmd;
+        private final String evt;
+        private final long numericNonce;
+        // the nonce is only decoded from the payload if someone asks for it as a String
+        private final byte[] source;
+        private final int nonceStart;
+        private final int nonceEnd;
+        private String nonce;
+
+        private Routing(String cmd, String evt, String nonce, byte[] source, int nonceStart, int nonceEnd) {
+            this.cmd = cmd;
+            this.evt = evt;
+            this.nonce = nonce;
+            this.source = source;
+            this.nonceStart = nonceStart;
+            this.nonceEnd = nonceEnd;
+            if (nonce != null)
+                this.numericNonce = number(nonce);
+            else if (source != null && nonceStart >= 0)
+                this.numericNonce = number(source, nonceStart, nonceEnd);
+            else
+                this.numericNonce = -1;
+        }
+
+        private static Routing of(JsonObject json) {
+            if (json == null)
+                return NONE;
+            return new Routing(string(json, "cmd"), string(json, "evt"), string(json, "nonce"), null, -1, -1);
+        }
+
+        private String nonce() {
+            String n = nonce;
+            if (n == null && nonceStart >= 0) {
+                n = new String(source, nonceStart, nonceEnd - nonceStart, StandardCharsets.UTF_8);
+                nonce = n;
+            }
+            return n;
+        }
+
+        /**
+         * Reads a run of ASCII digits as a positive number.
+         *
+         * @return The number, or {@code -1} if the run is empty, too long or not all digits.
+         */
+        private static long number(byte[] b, int start, int end) {
+            if (end <= start || end - start > 18)
+                return -1;
+            long n = 0;
+            for (int i = start; i < end; i++) {
+                if (b[i] < '0' || b[i] > '9')
+                    return -1;
+                n = n * 10 + (b[i] - '0');
+            }
+            return n;
+        }
+
+        /**
+         * Reads a String of ASCII digits as a positive number, as {@link #number(byte[], int, int)} reads bytes.
+         *
+         * @return The number, or {@code -1} if the String is empty, too long or not all digits.
+         */
+        private static long number(String s) {
+            if (s.isEmpty() || s.length() > 18)
+                return -1;
+            long n = 0;
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9')
+                    return -1;
+                n = n * 10 + (c - '0');
+            }
+            return n;
+        }
+
+        private static String string(JsonObject json, String key) {
+            JsonElement e = json.get(key);
+            return e == null || e.isJsonNull() ? null : e.getAsString();
+        }
+
+        /**
+         * Picks the routing keys out of the top level of a JSON object, skipping
+         * over every other value without building anything.
+         *
+         * @param b The UTF-8 JSON payload.
+         * @return The routing keys, or {@code null} if the payload has anything
+         * the scan doesn't handle, such as escaped keys or malformed JSON.
+         */
+        private static Routing scan(byte[] b) {
+            String cmd = null, evt = null;
+            int nonceStart = -1, nonceEnd = -1;
+            int i = skipWhitespace(b, 0);
+            if (i >= b.length || b[i] != '{')
+                return null;
+            i = skipWhitespace(b, i + 1);
+            if (i < b.length && b[i] == '}')
+                return skipWhitespace(b, i + 1) == b.length ? NONE : null;
+            while (true) {
+                if (i >= b.length || b[i] != '"')
+                    return null;
+                int keyStart = i + 1;
+                int keyEnd = endOfString(b, keyStart);
+                if (keyEnd < 0)
+                    return null;
+                i = skipWhitespace(b, keyEnd + 1);
+                if (i >= b.length || b[i] != ':')
+                    return null;
+                i = skipWhitespace(b, i + 1);
+                if (i >= b.length)
+                    return null;
+
+                byte[] key = matches(b, keyStart, keyEnd, CMD) ? CMD
+                        : matches(b, keyStart, keyEnd, EVT) ? EVT
+                        : matches(b, keyStart, keyEnd, NONCE) ? NONCE : null;
+                String value = null;
+                int valueStart = -1, valueEnd = -1;
+                if (key != null && b[i] == '"') {
+                    valueStart = i + 1;
+                    valueEnd = endOfString(b, valueStart);
+                    if (valueEnd < 0)
+                        return null;
+                    if (key != NONCE)
+                        value = new String(b, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8);
+                    i = valueEnd + 1;
+                } else if (key != null && b[i] != 'n') {
+                    // not a string or null, leave it to Gson to decide what that means
+                    return null;
+                } else {
+                    i = skipValue(b, i);
+                    if (i < 0)
+                        return null;
+                }
+                if (key == CMD)
+                    cmd = value;
+                else if (key == EVT)
+                    evt = value;
+                else if (key == NONCE) {
+                    nonceStart = valueStart;
+                    nonceEnd = valueEnd;
+                }
+
+                i = skipWhitespace(b, i);
+                if (i >= b.length)
+                    return null;
+                if (b[i] == '}')
+                    break;
+                if (b[i] != ',')
+                    return null;
+                i = skipWhitespace(b, i + 1);
+            }
+            return skipWhitespace(b, i + 1) == b.length ? new Routing(cmd, evt, null, b, nonceStart, nonceEnd) : null;
+        }
+
+        /**
+         * Finds the closing quote of a string, or {@code -1} if the string
+         * has escapes in it or never ends.
+         */
+        private static int endOfString(byte[] b, int i) {
+            for (; i < b.length; i++) {
+                if (b[i] == '"')
+                    return i;
+                if (b[i] == '\\')
+                    return -1;
+            }
+            return -1;
+        }
+
+        /**
+         * Skips one value of any kind, returning the index just past it or
+         * {@code -1} if the nesting doesn't add up.
+         */
+        private static int skipValue(byte[] b, int i) {
+            int depth = 0;
+            for (; i < b.length; i++) {
+                byte c = b[i];
+                if (c == '"') {
+                    // escapes are allowed here, only the closing quote matters
+                    for (i++; i < b.length && b[i] != '"'; i++) {
+                        if (b[i] == '\\')
+                            i++;
+                    }
+                    if (i >= b.length)
+                        return -1;
+                    if (depth == 0)
+                        return i + 1;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    if (depth == 0)
+                        return i;
+                    if (--depth == 0)
+                        return i + 1;
+                } else if (depth == 0 && (c == ',' || c == ' ' || c == '\t' || c == '\n' || c == '\r')) {
+                    return i;
+                }
+            }
+            return depth == 0 ? i : -1;
+        }
+
+        private static int skipWhitespace(byte[] b, int i) {
+            while (i < b.length && (b[i] == ' ' || b[i] == '\t' || b[i] == '\n' || b[i] == '\r'))
+                i++;
+            return i;
+        }
+
+        private static boolean matches(byte[] b, int start, int end, byte[] key) {
+            if (end - start != key.length)
+                return false;
+            for (int i = 0; i < key.length; i++) {
+                if (b[start + i] != key[i])
+                    return false;
+            }
+            return true;
+        }
     }
 
     /**
@@ -84,6 +390,19 @@ public class Packet {
      * connected.
      */
     public enum OpCode {
-        HANDSHAKE, FRAME, CLOSE, PING, PONG
+        HANDSHAKE, FRAME, CLOSE, PING, PONG;
+
+        private static final OpCode[] VALUES = values();
+
+        /**
+         * Gets the {@link OpCode} sent on the wire as the provided value,
+         * without cloning the {@link #values()} array.
+         *
+         * @param ordinal The opcode value read from a frame header.
+         * @return The matching OpCode, or {@code null} if there is none.
+         */
+        public static OpCode fromOrdinal(int ordinal) {
+            return ordinal >= 0 && ordinal < VALUES.length ? VALUES[ordinal] : null;
+        }
     }
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Describes how an {@link com.jagrosh.discordipc.IPCClient IPCClient} retries
+ * connecting after it unexpectedly loses its connection to Discord.<p>
+ * <p>
+ * The delay before each attempt doubles from the initial delay up to the
+ * maximum delay, and a random half of it is shaved off so that many clients
+ * losing Discord at the same time don't all retry in lockstep.
+ *
+ * @see com.jagrosh.discordipc.IPCClient#setReconnectPolicy(ReconnectPolicy)
+ */
+public class ReconnectPolicy {
+    /**
+     * Retries forever, starting after 250 milliseconds and backing off to once every 30 seconds.
+     */
+    public static final ReconnectPolicy DEFAULT = new ReconnectPolicy(250, 30000, 0);
+
+    private final long initialDelay;
+    private final long maxDelay;
+    private final int maxAttempts;
+
+    /**
+     * Constructs a new ReconnectPolicy.
+     *
+     * @param initialDelay The delay before the first attempt, in milliseconds.
+     * @param maxDelay     The longest delay between attempts, in milliseconds.
+     * @param maxAttempts  The number of attempts before giving up, or {@code 0} to never give up.
+     */
+    public ReconnectPolicy(long initialDelay, long maxDelay, int maxAttempts) {
+        if (initialDelay < 0 || maxDelay < initialDelay || maxAttempts < 0)
+            throw new IllegalArgumentException("Invalid reconnect policy!");
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Gets the delay before the provided attempt, including jitter.
+     *
+     * @param attempt The attempt, starting at {@code 0}.
+     * @return The delay in milliseconds.
+     */
+    public long getDelay(int attempt) {
+        long delay = initialDelay << Math.min(attempt, 30);
+        if (delay > maxDelay || delay < 0)
+            delay = maxDelay;
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    /**
+     * Gets whether another attempt should be made after the provided number of attempts failed.
+     *
+     * @param attempts The number of failed attempts so far.
+     * @return {@code true} if another attempt should be made.
+     */
+    public boolean shouldRetry(int attempts) {
+        return maxAttempts == 0 || attempts < maxAttempts;
+    }
+
+    public long getInitialDelay() {
+        return initialDelay;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
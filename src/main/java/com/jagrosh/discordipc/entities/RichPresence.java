@@ -17,10 +17,11 @@ package com.jagrosh.discordipc.entities;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Objects;
 
 /**
  * An encapsulation of all data needed to properly construct a JSON RichPresence payload.
@@ -30,6 +31,9 @@ import java.util.stream.Collectors;
  * @author John Grosh (john.a.grosh@gmail.com)
  */
 public class RichPresence {
+    // 64-bit FNV-1a, which unlike String#hashCode is both wide and fully specified
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
     private final String state;
     private final String details;
     private final long startTimestamp;
@@ -46,6 +50,10 @@ public class RichPresence {
     private final String spectateSecret;
     private final Button[] buttons;
     private final boolean instance;
+    // lazily computed, 0 until then
+    private volatile long fingerprint;
+    // lazily serialized, null until then
+    private volatile byte[] encoded;
 
     public RichPresence(String state, String details, long startTimestamp, long endTimestamp,
                         String largeImageKey, String largeImageText, String smallImageKey, String smallImageText,
@@ -65,7 +73,7 @@ public class RichPresence {
         this.matchSecret = matchSecret;
         this.joinSecret = joinSecret;
         this.spectateSecret = spectateSecret;
-        this.buttons = buttons;
+        this.buttons = buttons == null ? null : buttons.clone();
         this.instance = instance;
     }
 
@@ -136,29 +144,222 @@ public class RichPresence {
 
             if (secrets.has("join") || secrets.has("spectate") || secrets.has("match"))
                 payload.add("secrets", secrets);
-        } else {
-            List<JsonObject> buttonList = Arrays.stream(buttons)
-                    .limit(2)
-                    .map(button -> {
-                        JsonObject buttonJson = new JsonObject();
-                        buttonJson.addProperty("label", button.label);
-                        buttonJson.addProperty("url", button.url);
-                        return buttonJson;
-                    })
-                    .collect(Collectors.toList());
-
+        } else if (buttons.length > 0) {
+            // discord only allows two buttons
             JsonArray buttonArray = new JsonArray();
-            for (JsonObject button : buttonList)
-                buttonArray.add(button);
-
-            if (buttonArray.size() > 0)
-                payload.add("buttons", buttonArray);
+            for (int i = 0; i < Math.min(buttons.length, 2); i++) {
+                JsonObject buttonJson = new JsonObject();
+                buttonJson.addProperty("label", buttons[i].label);
+                buttonJson.addProperty("url", buttons[i].url);
+                buttonArray.add(buttonJson);
+            }
+            payload.add("buttons", buttonArray);
         }
 
         payload.addProperty("instance", instance);
         return payload;
     }
 
+    /**
+     * Gets the payload to send to discord to update a user's Rich Presence,
+     * encoded as UTF-8 JSON.
+     *
+     * <p>The payload is streamed straight to UTF-8 the first time this is
+     * called, and the same array is returned from then on, so that it can be spliced
+     * into any number of outgoing frames. <b>The returned array must not be modified.</b>
+     *
+     * <p>This is purely internal, and should not ever need to be called outside of
+     * the library.
+     *
+     * @return The UTF-8 JSON payload for updating a user's Rich Presence.
+     */
+    public byte[] toJsonBytes() {
+        byte[] bytes = encoded;
+        if (bytes == null) {
+            Utf8Writer out = new Utf8Writer(256);
+            try {
+                writeJson(new JsonWriter(out));
+            } catch (IOException ex) {
+                throw new IllegalStateException(ex); // a Utf8Writer never throws
+            }
+            bytes = out.toByteArray();
+            encoded = bytes;
+        }
+        return bytes;
+    }
+
+    private void writeJson(JsonWriter json) throws IOException {
+        json.beginObject();
+
+        if (state != null && !state.isEmpty())
+            json.name("state").value(state);
+        if (details != null && !details.isEmpty())
+            json.name("details").value(details);
+
+        if (startTimestamp > 0L) {
+            json.name("timestamps").beginObject();
+            json.name("start").value(startTimestamp);
+            if (endTimestamp >= startTimestamp)
+                json.name("end").value(endTimestamp);
+            json.endObject();
+        }
+
+        boolean largeImage = largeImageKey != null && !largeImageKey.isEmpty();
+        boolean smallImage = smallImageKey != null && !smallImageKey.isEmpty();
+        if (largeImage || smallImage) {
+            json.name("assets").beginObject();
+            if (largeImage) {
+                json.name("large_image").value(largeImageKey);
+                if (largeImageText != null && !largeImageText.isEmpty())
+                    json.name("large_text").value(largeImageText);
+            }
+            if (smallImage) {
+                json.name("small_image").value(smallImageKey);
+                if (smallImageText != null && !smallImageText.isEmpty())
+                    json.name("small_text").value(smallImageText);
+            }
+            json.endObject();
+        }
+
+        if (partyId != null) {
+            json.name("party").beginObject();
+            json.name("id").value(partyId);
+            json.name("size").beginArray();
+            if (partySize > 0) {
+                json.value(partySize);
+                if (partyMax >= partySize)
+                    json.value(partyMax);
+            }
+            json.endArray();
+            json.endObject();
+        }
+
+        if (buttons == null) {
+            boolean join = joinSecret != null && !joinSecret.isEmpty();
+            boolean spectate = spectateSecret != null && !spectateSecret.isEmpty();
+            boolean match = matchSecret != null && !matchSecret.isEmpty();
+            if (join || spectate || match) {
+                json.name("secrets").beginObject();
+                if (join)
+                    json.name("join").value(joinSecret);
+                if (spectate)
+                    json.name("spectate").value(spectateSecret);
+                if (match)
+                    json.name("match").value(matchSecret);
+                json.endObject();
+            }
+        } else if (buttons.length > 0) {
+            // discord only allows two buttons
+            json.name("buttons").beginArray();
+            for (int i = 0; i < Math.min(buttons.length, 2); i++) {
+                json.beginObject();
+                json.name("label").value(buttons[i].label);
+                json.name("url").value(buttons[i].url);
+                json.endObject();
+            }
+            json.endArray();
+        }
+
+        json.name("instance").value(instance);
+        json.endObject();
+        json.flush();
+    }
+
+    /**
+     * Gets a stable 64-bit fingerprint of this {@link RichPresence}.<p>
+     * <p>
+     * Equal presences always have the same fingerprint, in this JVM or any other,
+     * so comparing fingerprints is a cheap way to tell if a presence has changed
+     * without serializing it. The fingerprint is computed once and then cached.
+     *
+     * @return The fingerprint of this RichPresence.
+     */
+    public long fingerprint() {
+        long fp = fingerprint;
+        if (fp == 0) {
+            fp = FNV_OFFSET;
+            fp = mix(fp, state);
+            fp = mix(fp, details);
+            fp = mix(fp, startTimestamp);
+            fp = mix(fp, endTimestamp);
+            fp = mix(fp, largeImageKey);
+            fp = mix(fp, largeImageText);
+            fp = mix(fp, smallImageKey);
+            fp = mix(fp, smallImageText);
+            fp = mix(fp, partyId);
+            fp = mix(fp, partySize);
+            fp = mix(fp, partyMax);
+            fp = mix(fp, matchSecret);
+            fp = mix(fp, joinSecret);
+            fp = mix(fp, spectateSecret);
+            fp = mix(fp, buttons == null ? -1 : buttons.length);
+            if (buttons != null) {
+                for (Button button : buttons) {
+                    fp = mix(fp, button == null ? null : button.label);
+                    fp = mix(fp, button == null ? null : button.url);
+                }
+            }
+            fp = mix(fp, instance ? 1 : 0);
+            if (fp == 0)
+                fp = 1; // 0 means not computed yet
+            fingerprint = fp;
+        }
+        return fp;
+    }
+
+    private static long mix(long fp, long value) {
+        for (int i = 0; i < 8; i++) {
+            fp ^= (value >>> (i * 8)) & 0xFF;
+            fp *= FNV_PRIME;
+        }
+        return fp;
+    }
+
+    private static long mix(long fp, String value) {
+        if (value == null)
+            return mix(fp, -1L);
+        fp = mix(fp, value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            fp ^= c & 0xFF;
+            fp *= FNV_PRIME;
+            fp ^= c >>> 8;
+            fp *= FNV_PRIME;
+        }
+        return fp;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof RichPresence))
+            return false;
+        RichPresence other = (RichPresence) o;
+        return fingerprint() == other.fingerprint()
+                && startTimestamp == other.startTimestamp
+                && endTimestamp == other.endTimestamp
+                && partySize == other.partySize
+                && partyMax == other.partyMax
+                && instance == other.instance
+                && Objects.equals(state, other.state)
+                && Objects.equals(details, other.details)
+                && Objects.equals(largeImageKey, other.largeImageKey)
+                && Objects.equals(largeImageText, other.largeImageText)
+                && Objects.equals(smallImageKey, other.smallImageKey)
+                && Objects.equals(smallImageText, other.smallImageText)
+                && Objects.equals(partyId, other.partyId)
+                && Objects.equals(matchSecret, other.matchSecret)
+                && Objects.equals(joinSecret, other.joinSecret)
+                && Objects.equals(spectateSecret, other.spectateSecret)
+                && Arrays.equals(buttons, other.buttons);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(fingerprint());
+    }
+
     public static class Button {
         private final String label;
         private final String url;
@@ -167,6 +368,21 @@ public class RichPresence {
             this.label = label;
             this.url = url;
         }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Button))
+                return false;
+            Button other = (Button) o;
+            return Objects.equals(label, other.label) && Objects.equals(url, other.url);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(label, url);
+        }
     }
 
     /**
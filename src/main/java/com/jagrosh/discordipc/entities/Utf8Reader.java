@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities;
+
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A {@link Reader} that decodes a UTF-8 byte array straight into the reader's buffer,
+ * without building a String first, or buffering bytes as an InputStreamReader does.
+ * Malformed input becomes {@code U+FFFD}, as with {@code new String(bytes, UTF_8)}.
+ */
+final class Utf8Reader extends Reader {
+    private final ByteBuffer bytes;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    // the low half of a surrogate pair that was read one char at a time
+    private int pendingLow = -1;
+
+    Utf8Reader(byte[] bytes) {
+        this.bytes = ByteBuffer.wrap(bytes);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+        if (len == 0)
+            return 0;
+        int start = off;
+        if (pendingLow >= 0) {
+            cbuf[off++] = (char) pendingLow;
+            len--;
+            pendingLow = -1;
+        }
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        decoder.decode(bytes, out, true);
+        if (out.position() == start && bytes.hasRemaining()) {
+            // a single char of room, and a surrogate pair next
+            CharBuffer pair = CharBuffer.allocate(2);
+            decoder.decode(bytes, pair, true);
+            out.put(pair.get(0));
+            pendingLow = pair.get(1);
+        }
+        int n = out.position() - start;
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public void close() {
+    }
+}
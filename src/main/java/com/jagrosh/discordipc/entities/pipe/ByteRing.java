@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded ring of bytes with one thread reading and one writing at a time,
+ * which never lock and only park when the ring is empty or full.<p>
+ * <p>
+ * The positions only ever grow, so the bytes available are always
+ * {@code tail - head}, and the index into the buffer is the position masked
+ * by its power of two capacity.
+ */
+final class ByteRing {
+    private final byte[] buffer;
+    private final int mask;
+    // the position of the next byte to read, and of the next to write
+    private volatile long head;
+    private volatile long tail;
+    // the thread parked waiting for bytes, and for room
+    private volatile Thread reader;
+    private volatile Thread writer;
+    private volatile boolean closed;
+
+    ByteRing(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30)
+            throw new IllegalArgumentException("Invalid ring capacity: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        this.buffer = new byte[size < capacity ? size << 1 : size];
+        this.mask = buffer.length - 1;
+    }
+
+    /**
+     * Reads the bytes available into the buffer, waiting for some if there are none.
+     *
+     * @param dst The buffer to read into.
+     * @return The number of bytes read, or {@code -1} if the ring was closed and has been emptied.
+     * @throws InterruptedIOException If interrupted while waiting.
+     */
+    int read(ByteBuffer dst) throws IOException {
+        if (!dst.hasRemaining())
+            return 0;
+        while (true) {
+            long h = head;
+            int available = (int) (tail - h);
+            if (available > 0) {
+                int n = Math.min(available, dst.remaining());
+                int offset = (int) h & mask;
+                int first = Math.min(n, buffer.length - offset);
+                dst.put(buffer, offset, first);
+                if (n > first)
+                    dst.put(buffer, 0, n - first);
+                head = h + n;
+                wake(writer);
+                return n;
+            }
+            if (closed)
+                return -1;
+            reader = Thread.currentThread();
+            // check again once we can be woken, a write may have just missed us
+            if (tail - head <= 0 && !closed)
+                LockSupport.park(this);
+            reader = null;
+            checkInterrupted();
+        }
+    }
+
+    /**
+     * Writes every remaining byte of the buffer, waiting for room whenever the ring is full.
+     *
+     * @param src The buffer to write.
+     * @throws IOException If the ring is closed, or interrupted while waiting.
+     */
+    void write(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            if (closed)
+                throw new IOException("The loopback transport was closed");
+            long t = tail;
+            int free = buffer.length - (int) (t - head);
+            if (free > 0) {
+                int n = Math.min(free, src.remaining());
+                int offset = (int) t & mask;
+                int first = Math.min(n, buffer.length - offset);
+                src.get(buffer, offset, first);
+                if (n > first)
+                    src.get(buffer, 0, n - first);
+                tail = t + n;
+                wake(reader);
+                continue;
+            }
+            writer = Thread.currentThread();
+            // check again once we can be woken, a read may have just missed us
+            if (buffer.length - (tail - head) <= 0 && !closed)
+                LockSupport.park(this);
+            writer = null;
+            checkInterrupted();
+        }
+    }
+
+    /**
+     * Closes the ring. Bytes already written can still be read, after which reads return {@code -1}.
+     */
+    void close() {
+        closed = true;
+        wake(reader);
+        wake(writer);
+    }
+
+    private static void wake(Thread thread) {
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedIOException("Interrupted while waiting on a loopback transport");
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.jagrosh.discordipc.entities.pipe;
+
+import com.jagrosh.discordipc.entities.DiscordBuild;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Remembers where the last successful connection to Discord was made, so that
+ * the next {@link Pipe#openPipe connection} can try that pipe before probing
+ * every candidate.<p>
+ * <p>
+ * The location and {@link DiscordBuild} are always kept in memory for the life
+ * of the JVM. With {@link #setPersistent(boolean)} they are also written to a
+ * small file next to the IPC sockets, so they survive restarts of the application.
+ * Either way they only apply to the runtime directory they were found in.
+ */
+public final class DiscoveryCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DiscoveryCache.class);
+    private static final String FILE_NAME = "discordipc-cache";
+    private static volatile Entry entry;
+    private static volatile boolean persistent;
+    // the runtime directory the file was last read from or cleared in, or null if neither
+    private static volatile Path loadedFrom;
+
+    private DiscoveryCache() {
+    }
+
+    /**
+     * Sets whether the last successful location is also stored in a file
+     * in the user's runtime directory. This is off by default.
+     *
+     * @param persistent Whether to store the location across JVM restarts.
+     */
+    public static void setPersistent(boolean persistent) {
+        DiscoveryCache.persistent = persistent;
+    }
+
+    /**
+     * Gets whether the last successful location is stored across JVM restarts.
+     *
+     * @return {@code true} if the cache is persistent.
+     */
+    public static boolean isPersistent() {
+        return persistent;
+    }
+
+    /**
+     * Forgets the last successful location, both in memory and on disk.
+     */
+    public static void clear() {
+        Path directory = Pipe.getRuntimeDirectory();
+        entry = null;
+        loadedFrom = directory;
+        if (persistent) {
+            try {
+                Files.deleteIfExists(directory.resolve(FILE_NAME));
+            } catch (IOException ex) {
+                LOGGER.debug("Failed to delete the discovery cache", ex);
+            }
+        }
+    }
+
+    /**
+     * Gets the last successful location and build.
+     *
+     * @return The cached entry, or {@code null} if there is none.
+     */
+    static Entry get() {
+        Path directory = Pipe.getRuntimeDirectory();
+        Entry e = entry;
+        // an entry from another directory, such as before discordipc.dir was changed, doesn't apply
+        if (e != null && !e.directory.equals(directory))
+            e = null;
+        if (e == null && persistent && !directory.equals(loadedFrom)) {
+            loadedFrom = directory;
+            e = load(directory);
+            entry = e;
+        }
+        return e;
+    }
+
+    /**
+     * Stores the location and build of a successful connection.
+     *
+     * @param location The location of the pipe.
+     * @param build    The {@link DiscordBuild} that answered on it.
+     */
+    static void remember(String location, DiscordBuild build) {
+        Path directory = Pipe.getRuntimeDirectory();
+        Entry previous = entry;
+        if (previous != null && previous.directory.equals(directory) && previous.location.equals(location) && previous.build == build)
+            return;
+        Entry e = new Entry(directory, location, build);
+        entry = e;
+        if (persistent)
+            store(e);
+    }
+
+    private static Entry load(Path directory) {
+        Path file = directory.resolve(FILE_NAME);
+        try {
+            if (!Files.isRegularFile(file))
+                return null;
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if (lines.size() < 2)
+                return null;
+            return new Entry(directory, lines.get(0), DiscordBuild.valueOf(lines.get(1)));
+        } catch (IOException | IllegalArgumentException ex) {
+            LOGGER.debug("Failed to read the discovery cache", ex);
+            return null;
+        }
+    }
+
+    private static void store(Entry entry) {
+        Path file = entry.directory.resolve(FILE_NAME);
+        Path tmp;
+        try {
+            // write and move so that a concurrently starting JVM never reads half a file
+            tmp = Files.createTempFile(entry.directory, FILE_NAME, ".tmp");
+        } catch (IOException ex) {
+            LOGGER.debug("Failed to write the discovery cache", ex);
+            return;
+        }
+        try {
+            Files.write(tmp, (entry.location + "\n" + entry.build.name() + "\n").getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            LOGGER.debug("Failed to write the discovery cache", ex);
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                LOGGER.debug("Failed to delete the unused discovery cache", e);
+            }
+        }
+    }
+
+    static final class Entry {
+        // the runtime directory the location was found in
+        final Path directory;
+        final String location;
+        final DiscordBuild build;
+
+        private Entry(Path directory, String location, DiscordBuild build) {
+            this.directory = directory;
+            this.location = location;
+            this.build = build;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of direct buffers that every {@link Pipe} reads frames into and
+ * writes frames from, so that frames don't churn the heap and sockets don't
+ * have to copy them into direct memory of their own.<p>
+ * <p>
+ * Buffers come in power of two sizes from {@value #MIN_BUFFER_SIZE} bytes to
+ * {@value #MAX_BUFFER_SIZE} bytes, and are only held while a frame is being read
+ * or written. The pool never holds more than {@value #DEFAULT_CAPACITY} bytes of
+ * direct memory. Frames that need a bigger buffer, or arrive while the pool is
+ * used up, are {@link #getMisses() missed} and handled on the heap instead.
+ */
+public final class FrameBufferPool {
+    public static final int MIN_BUFFER_SIZE = 4 * 1024;
+    public static final int MAX_BUFFER_SIZE = 1024 * 1024;
+    public static final long DEFAULT_CAPACITY = 16 * 1024 * 1024;
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+    private static final FrameBufferPool SHARED = new FrameBufferPool(DEFAULT_CAPACITY);
+
+    private final long capacity;
+    private final Queue<ByteBuffer>[] free;
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong used = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private FrameBufferPool(long capacity) {
+        this.capacity = capacity;
+        this.free = new Queue[Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - MIN_SHIFT + 1];
+        for (int i = 0; i < free.length; i++)
+            free[i] = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Gets the pool shared by every pipe.
+     *
+     * @return The shared pool.
+     */
+    public static FrameBufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Takes a buffer with room for at least the provided number of bytes,
+     * which must be {@link #release(ByteBuffer) released} once done with.
+     *
+     * @param size The number of bytes needed.
+     * @return A cleared buffer limited to {@code size}, or {@code null} if the pool can't provide one.
+     */
+    ByteBuffer acquire(int size) {
+        if (size > MAX_BUFFER_SIZE) {
+            misses.incrementAndGet();
+            return null;
+        }
+        int sizeClass = sizeClass(size);
+        int bufferSize = MIN_BUFFER_SIZE << sizeClass;
+        ByteBuffer buf = free[sizeClass].poll();
+        if (buf == null) {
+            long total;
+            do {
+                total = allocated.get();
+                if (total + bufferSize > capacity) {
+                    misses.incrementAndGet();
+                    return null;
+                }
+            } while (!allocated.compareAndSet(total, total + bufferSize));
+            buf = ByteBuffer.allocateDirect(bufferSize);
+        }
+        used.addAndGet(bufferSize);
+        buf.clear().limit(size);
+        return buf;
+    }
+
+    /**
+     * Returns a buffer taken with {@link #acquire(int)} to the pool.
+     *
+     * @param buf The buffer, which must not be used afterwards.
+     */
+    void release(ByteBuffer buf) {
+        used.addAndGet(-buf.capacity());
+        free[sizeClass(buf.capacity())].offer(buf);
+    }
+
+    private static int sizeClass(int size) {
+        if (size <= MIN_BUFFER_SIZE)
+            return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    /**
+     * Gets the most direct memory this pool holds.
+     *
+     * @return The capacity in bytes.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the direct memory this pool has allocated, whether in use or free.
+     *
+     * @return The allocated bytes.
+     */
+    public long getAllocatedBytes() {
+        return allocated.get();
+    }
+
+    /**
+     * Gets the direct memory taken by frames being read or written right now.
+     *
+     * @return The bytes in use.
+     */
+    public long getUsedBytes() {
+        return used.get();
+    }
+
+    /**
+     * Gets the number of times a frame had to be handled on the heap, because it was
+     * too big for any buffer in the pool or the pool was used up.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+}
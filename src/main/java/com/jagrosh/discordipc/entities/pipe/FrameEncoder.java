@@ -0,0 +1,281 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes the frames a {@link Pipe} writes straight into one reusable buffer,
+ * which is then handed to its {@link Transport} as it is.<p>
+ * <p>
+ * Room for each frame's header is left first and the header filled in once the
+ * payload is written, so JSON goes to UTF-8 exactly once, without a String or an
+ * array of it in between. The buffer holds as many whole frames as fit, up to the
+ * pipe's maximum frame size. Only the pipe's writer uses its encoder, so nothing is locked.
+ */
+final class FrameEncoder extends Writer {
+    // writes JSON exactly as JsonElement#toString does, keeping nulls and leaving HTML unescaped
+    private static final Gson GSON = new GsonBuilder().serializeNulls().disableHtmlEscaping().create();
+    private static final FrameBufferPool BUFFERS = FrameBufferPool.shared();
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int INITIAL_CAPACITY = 4096;
+    private static final byte[] NONCE_PREFIX = "\"nonce\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NONCE_SUFFIX = "\"}".getBytes(StandardCharsets.US_ASCII);
+
+    private final boolean direct;
+    private final int maxFrameSize;
+    // the buffer being filled, pooled if direct, or null while the writer is idle
+    private ByteBuffer buf;
+    // kept for the life of the pipe, when direct buffers aren't wanted or the pool runs out
+    private ByteBuffer heap;
+    // the size the buffer last had to grow to, so that the next one starts out that big
+    private int capacityHint = INITIAL_CAPACITY;
+    // the first half of a surrogate pair, until the second half is written
+    private char highSurrogate;
+
+    FrameEncoder(boolean direct, int maxFrameSize) {
+        this.direct = direct;
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    /**
+     * Works out the length of a frame made of encoded segments and a nonce, without encoding it.
+     *
+     * @param segments The encoded segments of the payload.
+     * @param number   The numeric nonce, or {@code 0} to use {@code nonce}.
+     * @param nonce    The string nonce, if there is no numeric one.
+     * @return The length of the frame, header included.
+     */
+    static int length(byte[][] segments, long number, String nonce) {
+        int length = HEADER_SIZE + NONCE_PREFIX.length + NONCE_SUFFIX.length
+                + (number == 0 ? nonce.length() : digits(number));
+        for (byte[] segment : segments)
+            length += segment.length;
+        return length;
+    }
+
+    /**
+     * Appends a whole frame after those already in the buffer, and sets its length.
+     *
+     * @param frame The frame to append.
+     * @return {@code false} if the frame doesn't fit, in which case the buffer is as it was.
+     * If the buffer wasn't empty, the frames in it should be written and the frame appended again.
+     * Otherwise, the frame is larger than the maximum frame size.
+     */
+    boolean append(Pipe.Queued frame) {
+        if (buf == null)
+            buf = acquire(capacityHint);
+        int start = buf.position();
+        while (true) {
+            // a frame of known length that can't fit is only encoded once there is room
+            if (frame.length < 0 || frame.length <= buf.remaining()) {
+                try {
+                    encode(frame);
+                    frame.length = buf.position() - start;
+                    return true;
+                } catch (BufferOverflowException ex) {
+                    buf.position(start);
+                    highSurrogate = 0;
+                }
+            }
+            if (!grow())
+                return false;
+        }
+    }
+
+    /**
+     * Checks whether there are no frames in the buffer.
+     *
+     * @return {@code true} if nothing has been appended since the buffer was last cleared.
+     */
+    boolean isEmpty() {
+        return buf == null || buf.position() == 0;
+    }
+
+    /**
+     * Gets the frames appended so far, ready to be written.
+     *
+     * @return The buffer, flipped for reading. It must be {@link #clear() cleared} before appending again.
+     */
+    ByteBuffer frames() {
+        return buf.flip();
+    }
+
+    /**
+     * Empties the buffer, keeping it for the next frames.
+     */
+    void clear() {
+        if (buf != null)
+            limit(buf);
+    }
+
+    /**
+     * Empties the buffer and gives it back to the {@link FrameBufferPool} if it came from
+     * there, such as when the writer runs out of frames.
+     */
+    void release() {
+        if (buf != null && buf.isDirect())
+            BUFFERS.release(buf);
+        buf = null;
+    }
+
+    private void encode(Pipe.Queued frame) {
+        int start = buf.position();
+        buf.putLong(0L); // the header, filled in below
+        if (frame.data != null) {
+            GSON.toJson(frame.data, this);
+            if (highSurrogate != 0) {
+                highSurrogate = 0;
+                buf.put((byte) '?');
+            }
+        } else {
+            for (byte[] segment : frame.segments)
+                buf.put(segment);
+            buf.put(NONCE_PREFIX);
+            if (frame.number == 0) {
+                for (int i = 0; i < frame.nonce.length(); i++)
+                    buf.put((byte) frame.nonce.charAt(i)); // nonces are always ASCII
+            } else {
+                putNumber(frame.number);
+            }
+            buf.put(NONCE_SUFFIX);
+        }
+        buf.putInt(start, frame.op.ordinal());
+        buf.putInt(start + Integer.BYTES, buf.position() - start - HEADER_SIZE);
+    }
+
+    private void putNumber(long number) {
+        int digits = digits(number);
+        if (buf.remaining() < digits)
+            throw new BufferOverflowException();
+        int pos = buf.position();
+        for (int i = pos + digits - 1; i >= pos; i--, number /= 10)
+            buf.put(i, (byte) ('0' + number % 10));
+        buf.position(pos + digits);
+    }
+
+    private static int digits(long n) {
+        int digits = 1;
+        while (n >= 10) {
+            n /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Swaps the buffer for one twice as big, keeping the frames in it.
+     *
+     * @return {@code false} if the buffer is already as big as a frame may be.
+     */
+    private boolean grow() {
+        if (buf.limit() >= maxFrameSize)
+            return false;
+        int capacity = (int) Math.min(maxFrameSize, buf.limit() * 2L);
+        ByteBuffer old = buf;
+        buf = acquire(capacity);
+        old.flip();
+        buf.put(old);
+        if (old.isDirect())
+            BUFFERS.release(old);
+        capacityHint = Math.max(capacityHint, capacity);
+        return true;
+    }
+
+    private ByteBuffer acquire(int capacity) {
+        ByteBuffer b = direct ? BUFFERS.acquire(capacity) : null;
+        if (b == null) {
+            if (heap == null || heap.capacity() < capacity)
+                heap = ByteBuffer.allocate(capacity);
+            b = heap;
+        }
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        return limit(b);
+    }
+
+    private ByteBuffer limit(ByteBuffer b) {
+        b.clear().limit(Math.min(b.capacity(), maxFrameSize));
+        return b;
+    }
+
+    @Override
+    public void write(int c) {
+        put((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        for (int i = off; i < off + len; i++)
+            put(cbuf[i]);
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        for (int i = off; i < off + len; i++)
+            put(str.charAt(i));
+    }
+
+    /**
+     * Encodes a char as UTF-8, replacing unpaired surrogates with {@code ?} as {@link String#getBytes} does.
+     */
+    private void put(char c) {
+        if (highSurrogate != 0) {
+            char high = highSurrogate;
+            highSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int cp = Character.toCodePoint(high, c);
+                if (buf.remaining() < 4)
+                    throw new BufferOverflowException();
+                buf.put((byte) (0xF0 | cp >> 18))
+                        .put((byte) (0x80 | cp >> 12 & 0x3F))
+                        .put((byte) (0x80 | cp >> 6 & 0x3F))
+                        .put((byte) (0x80 | cp & 0x3F));
+                return;
+            }
+            buf.put((byte) '?');
+        }
+        if (c < 0x80) {
+            buf.put((byte) c);
+        } else if (c < 0x800) {
+            if (buf.remaining() < 2)
+                throw new BufferOverflowException();
+            buf.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buf.put((byte) '?');
+        } else {
+            if (buf.remaining() < 3)
+                throw new BufferOverflowException();
+            buf.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import com.jagrosh.discordipc.entities.Callback;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * An open-addressing map from numeric nonces to the {@link Callback}, send time
+ * and deadline of the request sent with them.<p>
+ * <p>
+ * Keys, times and callbacks are kept in parallel arrays probed linearly, so
+ * adding and removing a request neither boxes the nonce nor allocates an entry.
+ * Removal shifts later entries of the same run back instead of leaving tombstones.
+ * The key {@code 0} marks an empty slot and cannot be used.
+ */
+final class LongCallbackMap {
+    private static final long EMPTY = 0;
+
+    private long[] keys;
+    private long[] sent;
+    private long[] deadlines;
+    private Callback[] callbacks;
+    private int mask;
+    private int size;
+
+    LongCallbackMap(int expected) {
+        allocate(Integer.highestOneBit(Math.max(expected, 4) * 2 - 1) << 1);
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized void put(long key, Callback callback, long sentAt, long deadline) {
+        if (key == EMPTY)
+            throw new IllegalArgumentException("Nonce cannot be 0");
+        if ((size + 1) * 2 > keys.length)
+            resize(keys.length << 1);
+        int i = slot(key);
+        while (keys[i] != EMPTY && keys[i] != key)
+            i = (i + 1) & mask;
+        if (keys[i] == EMPTY)
+            size++;
+        keys[i] = key;
+        sent[i] = sentAt;
+        deadlines[i] = deadline;
+        callbacks[i] = callback;
+    }
+
+    Callback remove(long key) {
+        return remove(key, null, null);
+    }
+
+    /**
+     * Removes an entry, reporting how long ago its request was sent.
+     *
+     * @param key     The nonce.
+     * @param command The command the request was answered as, reported with the time.
+     * @param timer   Receives the command and the nanoseconds since the request was sent, or {@code null}.
+     * @return The removed callback, or {@code null} if there was no entry.
+     */
+    synchronized Callback remove(long key, String command, ObjLongConsumer<String> timer) {
+        if (key == EMPTY)
+            return null;
+        for (int i = slot(key); keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                Callback callback = callbacks[i];
+                if (timer != null && command != null)
+                    timer.accept(command, System.nanoTime() - sent[i]);
+                delete(i);
+                return callback;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes every entry whose deadline has passed.
+     *
+     * @param now     The current {@link System#nanoTime()}.
+     * @param expired Receives the callbacks of the removed entries.
+     * @return The nanoseconds until the next deadline, or {@link Long#MAX_VALUE} if nothing is left.
+     */
+    synchronized long expire(long now, List<Callback> expired) {
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < keys.length; ) {
+            long left = deadlines[i] - now;
+            if (keys[i] != EMPTY && left <= 0) {
+                expired.add(callbacks[i]);
+                delete(i); // shifts a later entry into i, so look at it again
+            } else {
+                if (keys[i] != EMPTY)
+                    next = Math.min(next, left);
+                i++;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Removes every entry.
+     *
+     * @param removed Receives the callbacks of the removed entries.
+     */
+    synchronized void drain(List<Callback> removed) {
+        if (size == 0)
+            return;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY)
+                removed.add(callbacks[i]);
+        }
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(callbacks, null);
+        size = 0;
+    }
+
+    private int slot(long key) {
+        // fibonacci hashing spreads sequential nonces across the table
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private void delete(int i) {
+        size--;
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            // entries whose home lies cyclically in (i, j] are still reachable, leave them be
+            if (i <= j ? (i < home && home <= j) : (i < home || home <= j))
+                continue;
+            keys[i] = keys[j];
+            sent[i] = sent[j];
+            deadlines[i] = deadlines[j];
+            callbacks[i] = callbacks[j];
+            i = j;
+        }
+        keys[i] = EMPTY;
+        callbacks[i] = null;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldSent = sent;
+        long[] oldDeadlines = deadlines;
+        Callback[] oldCallbacks = callbacks;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY)
+                continue;
+            int j = slot(oldKeys[i]);
+            while (keys[j] != EMPTY)
+                j = (j + 1) & mask;
+            keys[j] = oldKeys[i];
+            sent[j] = oldSent[i];
+            deadlines[j] = oldDeadlines[i];
+            callbacks[j] = oldCallbacks[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        sent = new long[capacity];
+        deadlines = new long[capacity];
+        callbacks = new Callback[capacity];
+        mask = capacity - 1;
+    }
+}
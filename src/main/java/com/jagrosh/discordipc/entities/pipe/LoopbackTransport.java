@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * An in-memory {@link Transport}, connected to a {@link #getPeer() peer} that
+ * reads what this one writes and writes what this one reads.<p>
+ * <p>
+ * Bytes go through a lock-free ring buffer in each direction, so nothing leaves
+ * the process and no system calls are made. This lets the protocol be measured
+ * without the kernel's share of the cost, and lets a host that carries Discord's
+ * bytes itself hand them over. Closing either end closes both.
+ */
+public class LoopbackTransport implements Transport {
+    /**
+     * The capacity of each direction's ring buffer by default, in bytes.
+     */
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private final ByteRing in;
+    private final ByteRing out;
+    private final LoopbackTransport peer;
+
+    /**
+     * Creates a transport and its peer, with rings of the {@link #DEFAULT_CAPACITY default capacity}.
+     */
+    public LoopbackTransport() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a transport and its peer.
+     *
+     * @param capacity The capacity of each direction's ring buffer, rounded up to a power of two.
+     */
+    public LoopbackTransport(int capacity) {
+        this.in = new ByteRing(capacity);
+        this.out = new ByteRing(capacity);
+        this.peer = new LoopbackTransport(out, in, this);
+    }
+
+    private LoopbackTransport(ByteRing in, ByteRing out, LoopbackTransport peer) {
+        this.in = in;
+        this.out = out;
+        this.peer = peer;
+    }
+
+    /**
+     * Gets the other end of this transport.
+     *
+     * @return The peer.
+     */
+    public LoopbackTransport getPeer() {
+        return peer;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return in.read(dst);
+    }
+
+    @Override
+    public void write(ByteBuffer... srcs) throws IOException {
+        for (ByteBuffer src : srcs)
+            out.write(src);
+    }
+
+    @Override
+    public void close() {
+        in.close();
+        out.close();
+    }
+}
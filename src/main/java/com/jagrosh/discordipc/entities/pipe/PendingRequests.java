@@ -0,0 +1,335 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import com.jagrosh.discordipc.entities.Callback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * The {@link Callback Callbacks} of requests sent through a {@link Pipe} that
+ * Discord has yet to answer, keyed by nonce.<p>
+ * <p>
+ * The table is safe to use from the thread sending requests and the thread
+ * reading responses at once. Every request has a deadline, and requests that
+ * outlive it are failed by a sweep that is only scheduled while something is
+ * pending. The number of requests in flight is capped, and everything still
+ * pending can be failed at once when the connection goes away.<p>
+ * <p>
+ * Requests can be keyed by any string nonce, or by a numeric nonce when the
+ * pipe sends them {@link #setNumericNonces(boolean) numbered}. Numeric nonces are
+ * kept in a primitive long-keyed map, so they are never boxed or hashed as strings.<p>
+ * <p>
+ * Callbacks that are failed by a timeout run on the provided scheduler's thread.<p>
+ * <p>
+ * The time each request took to be answered can be reported to a
+ * {@link #setTimer(ObjLongConsumer) timer}, by the command it was answered as.
+ */
+public final class PendingRequests {
+    public static final long DEFAULT_TIMEOUT = 10000;
+    public static final int DEFAULT_CAPACITY = 256;
+    private static final Logger LOGGER = LoggerFactory.getLogger(PendingRequests.class);
+    // sweeps never run closer together than this, however close the deadlines are
+    private static final long MIN_SWEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long NO_SWEEP = Long.MIN_VALUE;
+
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private final LongCallbackMap numbered = new LongCallbackMap(DEFAULT_CAPACITY);
+    private final AtomicInteger size = new AtomicInteger();
+    // when the next sweep is due, by System#nanoTime, or NO_SWEEP while none is scheduled
+    private final AtomicLong nextSweep = new AtomicLong(NO_SWEEP);
+    private final ScheduledExecutorService scheduler;
+    private volatile long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIMEOUT);
+    private volatile int capacity = DEFAULT_CAPACITY;
+    private volatile boolean numericNonces = false;
+    private volatile ObjLongConsumer<String> timer = null;
+
+    /**
+     * Constructs a new, empty PendingRequests.
+     *
+     * @param scheduler The scheduler to sweep for timed out requests on.
+     */
+    public PendingRequests(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Sets how long Discord has to answer a request before it is failed.
+     * This applies to requests added after the call.
+     *
+     * @param timeout The timeout, in milliseconds.
+     */
+    public void setTimeout(long timeout) {
+        if (timeout <= 0)
+            throw new IllegalArgumentException("Request timeout must be positive!");
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    /**
+     * Sets the most requests that may await an answer at once.
+     *
+     * @param capacity The maximum number of pending requests.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive!");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Sets whether pipes opened from now on number their requests with a
+     * counter that starts over for every connection, instead of a random UUID.
+     *
+     * @param numericNonces Whether to use numeric nonces.
+     */
+    public void setNumericNonces(boolean numericNonces) {
+        this.numericNonces = numericNonces;
+    }
+
+    /**
+     * Gets whether pipes opened from now on number their requests.
+     *
+     * @return {@code true} if numeric nonces are used.
+     */
+    public boolean isNumericNonces() {
+        return numericNonces;
+    }
+
+    /**
+     * Sets what receives the time it took each request to be answered, when it is
+     * removed with the command it was answered as.
+     *
+     * @param timer Receives the command and the nanoseconds since the request was added, or {@code null}.
+     * @see #remove(long, String)
+     */
+    public void setTimer(ObjLongConsumer<String> timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * Gets the number of requests awaiting an answer.
+     *
+     * @return The number of pending requests.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Adds a request that is about to be sent.<p>
+     * <p>
+     * If the table is full the request is not added, and its {@link Callback}
+     * is failed right away. The request should not be sent in that case.
+     *
+     * @param nonce    The nonce the request is sent with.
+     * @param callback The {@link Callback} to complete once Discord answers.
+     * @return {@code true} if the request was added.
+     */
+    public boolean add(String nonce, Callback callback) {
+        if (!reserve(callback))
+            return false;
+        long now = System.nanoTime();
+        long deadline = now + timeoutNanos;
+        pending.put(nonce, new Pending(callback, now, deadline));
+        ensureSweep(deadline);
+        return true;
+    }
+
+    /**
+     * Adds a request that is about to be sent with a numeric nonce.
+     *
+     * @param nonce    The nonce the request is sent with, which must not be {@code 0}.
+     * @param callback The {@link Callback} to complete once Discord answers.
+     * @return {@code true} if the request was added.
+     * @see #add(String, Callback)
+     */
+    public boolean add(long nonce, Callback callback) {
+        if (!reserve(callback))
+            return false;
+        long now = System.nanoTime();
+        long deadline = now + timeoutNanos;
+        numbered.put(nonce, callback, now, deadline);
+        ensureSweep(deadline);
+        return true;
+    }
+
+    /**
+     * Removes the request with the provided nonce, typically because Discord answered it.
+     *
+     * @param nonce The nonce of the request.
+     * @return The request's {@link Callback}, or {@code null} if it is not (or no longer) pending.
+     */
+    public Callback remove(String nonce) {
+        return remove(nonce, null);
+    }
+
+    /**
+     * Removes the request with the provided nonce because Discord answered it,
+     * reporting how long that took to the {@link #setTimer(ObjLongConsumer) timer}.
+     *
+     * @param nonce   The nonce of the request.
+     * @param command The command Discord answered, such as {@code SET_ACTIVITY}.
+     * @return The request's {@link Callback}, or {@code null} if it is not (or no longer) pending.
+     */
+    public Callback remove(String nonce, String command) {
+        Pending p = pending.remove(nonce);
+        if (p == null)
+            return null;
+        size.decrementAndGet();
+        ObjLongConsumer<String> timer = this.timer;
+        if (timer != null && command != null)
+            timer.accept(command, System.nanoTime() - p.sent);
+        return p.callback;
+    }
+
+    /**
+     * Removes the request with the provided numeric nonce.
+     *
+     * @param nonce The nonce of the request.
+     * @return The request's {@link Callback}, or {@code null} if it is not (or no longer) pending.
+     */
+    public Callback remove(long nonce) {
+        return remove(nonce, null);
+    }
+
+    /**
+     * Removes the request with the provided numeric nonce because Discord answered it.
+     *
+     * @param nonce   The nonce of the request.
+     * @param command The command Discord answered, such as {@code SET_ACTIVITY}.
+     * @return The request's {@link Callback}, or {@code null} if it is not (or no longer) pending.
+     * @see #remove(String, String)
+     */
+    public Callback remove(long nonce, String command) {
+        Callback callback = numbered.remove(nonce, command, timer);
+        if (callback != null)
+            size.decrementAndGet();
+        return callback;
+    }
+
+    /**
+     * Fails every pending request, such as when the connection is closed or lost.
+     *
+     * @param reason The message to fail each {@link Callback} with.
+     */
+    public void failAll(String reason) {
+        for (String nonce : pending.keySet()) {
+            Callback callback = remove(nonce);
+            if (callback != null)
+                complete(callback, reason);
+        }
+        List<Callback> drained = new ArrayList<>();
+        numbered.drain(drained);
+        size.addAndGet(-drained.size());
+        for (Callback callback : drained)
+            complete(callback, reason);
+    }
+
+    private boolean reserve(Callback callback) {
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            LOGGER.warn(String.format("Rejecting request, %d requests are already awaiting Discord", capacity));
+            callback.fail("Too many requests are awaiting a response from Discord");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Makes sure a sweep is due by the provided deadline, which only needs a new one if
+     * none is scheduled or the timeout was shortened since the scheduled one.
+     */
+    private void ensureSweep(long deadline) {
+        long due;
+        while ((due = nextSweep.get()) == NO_SWEEP || deadline - due < 0) {
+            if (nextSweep.compareAndSet(due, deadline)) {
+                scheduleSweep(deadline);
+                return;
+            }
+        }
+    }
+
+    private void scheduleSweep(long due) {
+        scheduler.schedule(() -> sweep(due), Math.max(due - System.nanoTime(), MIN_SWEEP_NANOS), TimeUnit.NANOSECONDS);
+    }
+
+    private void sweep(long due) {
+        // an earlier sweep was scheduled since this one, and took over from it
+        if (nextSweep.get() != due)
+            return;
+        long now = System.nanoTime();
+        long next = Long.MAX_VALUE;
+        for (Iterator<Map.Entry<String, Pending>> it = pending.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Pending> entry = it.next();
+            Pending p = entry.getValue();
+            long left = p.deadline - now;
+            if (left > 0) {
+                next = Math.min(next, left);
+            } else if (pending.remove(entry.getKey(), p)) {
+                size.decrementAndGet();
+                LOGGER.debug(String.format("Request %s timed out", entry.getKey()));
+                complete(p.callback, "Timed out waiting for a response from Discord");
+            }
+        }
+        List<Callback> expired = new ArrayList<>(0);
+        next = Math.min(next, numbered.expire(now, expired));
+        size.addAndGet(-expired.size());
+        for (Callback callback : expired)
+            complete(callback, "Timed out waiting for a response from Discord");
+        long following = next == Long.MAX_VALUE ? NO_SWEEP : now + next;
+        // a request with an earlier deadline may have scheduled a sweep of its own meanwhile
+        if (!nextSweep.compareAndSet(due, following))
+            return;
+        if (following != NO_SWEEP) {
+            scheduleSweep(following);
+            return;
+        }
+        // a request may have been added after the loop without scheduling a sweep
+        if (size.get() > 0)
+            ensureSweep(now + timeoutNanos);
+    }
+
+    private static void complete(Callback callback, String reason) {
+        try {
+            callback.fail(reason);
+        } catch (RuntimeException ex) {
+            LOGGER.error("Exception when failing a request: ", ex);
+        }
+    }
+
+    private static final class Pending {
+        private final Callback callback;
+        private final long sent;
+        private final long deadline;
+
+        private Pending(Callback callback, long sent, long deadline) {
+            this.callback = callback;
+            this.sent = sent;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.jagrosh.discordipc.IPCClient;
 import com.jagrosh.discordipc.IPCListener;
+import com.jagrosh.discordipc.IPCMetrics;
 import com.jagrosh.discordipc.entities.Callback;
 import com.jagrosh.discordipc.entities.DiscordBuild;
 import com.jagrosh.discordipc.entities.Packet;
@@ -27,130 +28,350 @@ import com.jagrosh.discordipc.exceptions.NoDiscordClientException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectableChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
-
-public abstract class Pipe {
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A connection to Discord, which frames packets and correlates requests with
+ * their answers over a {@link Transport} that only moves bytes.
+ */
+public class Pipe {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Pipe.class);
     private static final int VERSION = 1;
     // a list of system property keys to get IPC file from different unix systems.
     private final static String[] unixPaths = {"XDG_RUNTIME_DIR", "TMPDIR", "TMP", "TEMP"};
+    // a system property that overrides the unix directory, for pointing clients at a local test server
+    private final static String DIR_PROPERTY = "discordipc.dir";
+    // subdirectories of the unix directory that sandboxed (Flatpak and Snap) Discord clients use
+    private final static String[] unixSandboxes = {"", "app/com.discordapp.Discord", "app/com.discordapp.DiscordCanary",
+            "snap.discord", "snap.discord-canary"};
+    // how long a pipe may take to answer the handshake by default, in milliseconds
+    public final static long DEFAULT_TIMEOUT = 5000;
+    // how many frames may wait to be written by default, not counting control frames
+    public final static int DEFAULT_WRITE_QUEUE_CAPACITY = 256;
+    // the largest frame read or written by default, in bytes, header included
+    public final static int DEFAULT_MAX_FRAME_SIZE = 1024 * 1024;
+    private final static int HEADER_SIZE = 2 * Integer.BYTES;
+    private final static int INITIAL_PAYLOAD_CAPACITY = 4096;
+    // how a read that comes up short waits: spins first, then sleeps from 1 µs doubling up to about 1 ms.
+    // 100 spins take around 2 µs, while even the shortest sleep takes around 50 µs on Linux, so the spins
+    // catch data already on its way for a small fraction of what a single sleep costs
+    private final static int READ_SPINS = 100;
+    private final static long MIN_READ_PARK_NANOS = 1000;
+    private final static int MAX_READ_PARK_SHIFT = 10;
+    private final static FrameBufferPool BUFFERS = FrameBufferPool.shared();
+    private final static ExecutorService PROBE_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "DiscordIPC-Probe");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // writes frames for every pipe, each pipe has at most one of its threads at a time
+    private final static ExecutorService WRITER_EXECUTOR = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "DiscordIPC-Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // how long closing waits for queued frames and the CLOSE to be written, in milliseconds
+    private final static long CLOSE_TIMEOUT = 1000;
     final IPCClient ipcClient;
-    private final HashMap<String, Callback> callbacks;
-    PipeStatus status = PipeStatus.CONNECTING;
+    private final Transport transport;
+    // whether frames go through pooled direct buffers, or heap buffers
+    private final boolean direct;
+    final int maxFrameSize;
+    private final PendingRequests pending;
+    private final IPCMetrics metrics;
+    // numbers this connection's requests when set, instead of a random UUID each
+    private final AtomicLong nextNonce;
+    private final WriteQueue writes;
+    volatile PipeStatus status = PipeStatus.CONNECTING;
     IPCListener listener;
+    // whether the listener does anything with sent packets, which are otherwise never made
+    private boolean packetsSent;
     private DiscordBuild build;
-
-    Pipe(IPCClient ipcClient, HashMap<String, Callback> callbacks) {
+    private String location;
+    // frame headers are two little-endian signed ints: the op and the payload length
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    // the buffer the current frame's payload is read into, pooled or else heapPayload
+    private ByteBuffer payload;
+    private boolean pooledPayload;
+    private ByteBuffer heapPayload;
+    // the op of the frame whose payload is being read, or null while reading a header
+    private Packet.OpCode pendingOp;
+
+    Pipe(IPCClient ipcClient, PendingRequests pending, Transport transport) {
         this.ipcClient = ipcClient;
-        this.callbacks = callbacks;
+        this.transport = transport;
+        this.direct = transport.prefersDirectBuffers();
+        this.maxFrameSize = ipcClient.getMaxFrameSize();
+        this.pending = pending;
+        this.metrics = ipcClient.getMetrics();
+        this.nextNonce = pending.isNumericNonces() ? new AtomicLong() : null;
+        this.writes = new WriteQueue(this, WRITER_EXECUTOR, new FrameEncoder(direct, maxFrameSize));
     }
 
-    public static Pipe openPipe(IPCClient ipcClient, long clientId, HashMap<String, Callback> callbacks,
+    public static Pipe openPipe(IPCClient ipcClient, long clientId, PendingRequests pending,
                                 DiscordBuild... preferredOrder) throws NoDiscordClientException {
+        return openPipe(ipcClient, clientId, pending, DEFAULT_TIMEOUT, preferredOrder);
+    }
+
+    /**
+     * Opens a pipe to the Discord client, probing every candidate location at once.<p>
+     * <p>
+     * The first client to answer the handshake with the first {@link DiscordBuild}
+     * of {@code preferredOrder} wins, and every other probe is cancelled. Otherwise,
+     * once all probes have answered or the timeout has passed, the rest of
+     * {@code preferredOrder} is checked against the clients that did answer.
+     *
+     * @param ipcClient      The IPCClient the pipe is opened for.
+     * @param clientId       The client ID to handshake with.
+     * @param pending        The requests awaiting responses on the pipe.
+     * @param timeoutMillis  How long all probes together may take to answer the handshake, in milliseconds.
+     * @param preferredOrder The priority order of client builds to connect to.
+     * @return The opened pipe.
+     * @throws NoDiscordClientException If no client of the provided build types answered in time.
+     */
+    public static Pipe openPipe(IPCClient ipcClient, long clientId, PendingRequests pending,
+                                long timeoutMillis, DiscordBuild... preferredOrder) throws NoDiscordClientException {
+        return openPipe(ipcClient, clientId, pending, timeoutMillis, TransportFactory.SYSTEM, preferredOrder);
+    }
+
+    /**
+     * Opens a pipe to Discord over transports from the provided factory, probing
+     * every location it gives at once.
+     *
+     * @param ipcClient      The IPCClient the pipe is opened for.
+     * @param clientId       The client ID to handshake with.
+     * @param pending        The requests awaiting responses on the pipe.
+     * @param timeoutMillis  How long all probes together may take to answer the handshake, in milliseconds.
+     * @param transports     The {@link TransportFactory} to open transports with.
+     * @param preferredOrder The priority order of client builds to connect to.
+     * @return The opened pipe.
+     * @throws NoDiscordClientException If no client of the provided build types answered in time.
+     * @see #openPipe(IPCClient, long, PendingRequests, long, DiscordBuild...)
+     */
+    public static Pipe openPipe(IPCClient ipcClient, long clientId, PendingRequests pending, long timeoutMillis,
+                                TransportFactory transports, DiscordBuild... preferredOrder) throws NoDiscordClientException {
 
         if (preferredOrder == null || preferredOrder.length == 0)
             preferredOrder = new DiscordBuild[]{DiscordBuild.ANY};
 
-        Pipe pipe = null;
-
-        // store some files so we can get the preferred client
+        // the cached location and the rest share the timeout, so a stale cache doesn't double it
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        // store the first pipe found for each build so we can get the preferred client
         Pipe[] open = new Pipe[DiscordBuild.values().length];
-        for (int i = 0; i < 10; i++) {
-            try {
-                String location = getPipeLocation(i);
-                LOGGER.debug(String.format("Searching for IPC: %s", location));
-                pipe = createPipe(ipcClient, callbacks, location);
-
-                JsonObject payload = new JsonObject();
-                payload.addProperty("v", VERSION);
-                payload.addProperty("client_id", Long.toString(clientId));
-                pipe.send(Packet.OpCode.HANDSHAKE, payload, null);
 
-                Packet p = pipe.read(); // this is a valid client at this point
-
-                pipe.build = DiscordBuild.from(p.getJson()
-                        .getAsJsonObject("data")
-                        .getAsJsonObject("config")
-                        .get("api_endpoint").getAsString());
-
-                LOGGER.debug(String.format("Found a valid client (%s) with packet: %s", pipe.build.name(), p.toString()));
-                // we're done if we found our first choice
+        // try wherever we last connected before probing everything
+        // the cache only knows the Discord client's own locations
+        DiscoveryCache.Entry cached = transports == TransportFactory.SYSTEM ? DiscoveryCache.get() : null;
+        String probed = null;
+        Pipe fromCache = null;
+        if (cached != null && (cached.build == preferredOrder[0] || DiscordBuild.ANY == preferredOrder[0])) {
+            probed = cached.location;
+            AtomicReference<Pipe> opened = new AtomicReference<>();
+            AtomicBoolean finished = new AtomicBoolean();
+            Future<Pipe> probe = PROBE_EXECUTOR.submit(() -> probe(ipcClient, clientId, pending, transports, cached.location, pipe -> {
+                opened.set(pipe);
+                if (finished.get()) // too late, we've given up on it
+                    abortQuietly(pipe);
+            }));
+            try {
+                Pipe pipe = probe.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
                 if (pipe.build == preferredOrder[0] || DiscordBuild.ANY == preferredOrder[0]) {
-                    LOGGER.info(String.format("Found preferred client: %s", pipe.build.name()));
-                    break;
+                    LOGGER.info(String.format("Found preferred client at cached location: %s", pipe.build.name()));
+                    pipe.status = PipeStatus.CONNECTED;
+                    return pipe;
                 }
+                // another build now listens there, which will do if nothing better answers
+                fromCache = pipe;
+                offer(open, pipe);
+            } catch (ExecutionException | TimeoutException ex) {
+                LOGGER.debug(String.format("Cached IPC location is stale: %s", cached.location));
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            finished.set(true);
+            probe.cancel(true);
+            if (opened.get() != null && opened.get() != fromCache)
+                abortQuietly(opened.get());
+        }
 
-                open[pipe.build.ordinal()] = pipe; // didn't find first choice yet, so store what we have
-                open[DiscordBuild.ANY.ordinal()] = pipe; // also store in 'any' for use later
+        // the cached location has had its chance either way
+        List<String> locations = new ArrayList<>(transports.getLocations());
+        locations.remove(probed);
+        AtomicReferenceArray<Pipe> opened = new AtomicReferenceArray<>(locations.size());
+        AtomicBoolean finished = new AtomicBoolean();
+        CompletionService<Pipe> probes = new ExecutorCompletionService<>(PROBE_EXECUTOR);
+        List<Future<Pipe>> futures = new ArrayList<>(locations.size());
+        for (int i = 0; i < locations.size(); i++) {
+            int index = i;
+            String location = locations.get(i);
+            futures.add(probes.submit(() -> probe(ipcClient, clientId, pending, transports, location, pipe -> {
+                opened.set(index, pipe);
+                if (finished.get()) // too late, discovery is already over
+                    abortQuietly(pipe);
+            })));
+        }
 
-                pipe.build = null;
-                pipe = null;
-            } catch (IOException | JsonParseException ex) {
-                pipe = null;
+        Pipe pipe = null;
+        try {
+            for (int remaining = futures.size(); remaining > 0 && pipe == null; remaining--) {
+                Future<Pipe> probe = probes.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (probe == null) {
+                    LOGGER.debug(String.format("Gave up on %d unresponsive IPC pipe(s)", remaining));
+                    break;
+                }
+                try {
+                    Pipe found = probe.get();
+                    // we're done if we found our first choice
+                    if (found.build == preferredOrder[0] || DiscordBuild.ANY == preferredOrder[0]) {
+                        LOGGER.info(String.format("Found preferred client: %s", found.build.name()));
+                        pipe = found;
+                    } else {
+                        // didn't find first choice yet, so store what we have
+                        offer(open, found);
+                    }
+                } catch (ExecutionException ex) {
+                    // not a valid client
+                }
             }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         }
 
         if (pipe == null) {
             // we already know we don't have our first pick
             // check each of the rest to see if we have that
-            for (int i = 1; i < preferredOrder.length; i++) {
+            for (int i = 1; i < preferredOrder.length && pipe == null; i++) {
                 DiscordBuild cb = preferredOrder[i];
                 LOGGER.debug(String.format("Looking for client build: %s", cb.name()));
                 if (open[cb.ordinal()] != null) {
                     pipe = open[cb.ordinal()];
-                    open[cb.ordinal()] = null;
-                    if (cb == DiscordBuild.ANY) // if we pulled this from the 'any' slot, we need to figure out which build it was
-                    {
-                        for (int k = 0; k < open.length; k++) {
-                            if (open[k] == pipe) {
-                                pipe.build = DiscordBuild.values()[k];
-                                open[k] = null; // we don't want to close this
-                            }
-                        }
-                    } else pipe.build = cb;
-
                     LOGGER.info(String.format("Found preferred client: %s", pipe.build.name()));
-                    break;
                 }
             }
-            if (pipe == null) {
-                throw new NoDiscordClientException();
-            }
         }
-        // close unused files, except skip 'any' because its always a duplicate
-        for (int i = 0; i < open.length; i++) {
-            if (i == DiscordBuild.ANY.ordinal())
-                continue;
-            if (open[i] != null) {
-                try {
-                    open[i].close();
-                } catch (IOException ex) {
-                    // This isn't really important to applications and better
-                    // as debug info
-                    LOGGER.debug("Failed to close an open IPC pipe!", ex);
-                }
-            }
+
+        // cancel the probes still running and hang up on unused pipes, they have nothing queued to send
+        finished.set(true);
+        for (Future<Pipe> probe : futures)
+            probe.cancel(true);
+        for (int i = 0; i < opened.length(); i++) {
+            Pipe other = opened.get(i);
+            if (other != null && other != pipe)
+                abortQuietly(other);
+        }
+        if (fromCache != null && fromCache != pipe)
+            abortQuietly(fromCache);
+
+        if (pipe == null) {
+            if (cached != null)
+                DiscoveryCache.clear();
+            throw new NoDiscordClientException();
         }
 
+        if (transports == TransportFactory.SYSTEM)
+            DiscoveryCache.remember(pipe.location, pipe.build);
         pipe.status = PipeStatus.CONNECTED;
 
         return pipe;
     }
 
-    private static Pipe createPipe(IPCClient ipcClient, HashMap<String, Callback> callbacks, String location) {
+    /**
+     * Stores a pipe that answered as the first found of its build, and of any build,
+     * unless one was already found.
+     */
+    private static void offer(Pipe[] open, Pipe found) {
+        if (open[found.build.ordinal()] == null)
+            open[found.build.ordinal()] = found;
+        if (open[DiscordBuild.ANY.ordinal()] == null)
+            open[DiscordBuild.ANY.ordinal()] = found; // also store in 'any' for use later
+    }
+
+    /**
+     * Opens a pipe at the provided location and performs the handshake.
+     *
+     * @param ipcClient The IPCClient the pipe is opened for.
+     * @param clientId  The client ID to handshake with.
+     * @param pending    The requests awaiting responses on the pipe.
+     * @param transports The factory to open the pipe's transport with.
+     * @param location   The location of the pipe.
+     * @param onOpen    Receives the pipe as soon as it is opened, so it can be closed if the probe is cancelled.
+     * @return The pipe, with its {@link DiscordBuild} set.
+     * @throws IOException        If there is no valid client at the location.
+     * @throws JsonParseException If the client answered with bad data.
+     */
+    private static Pipe probe(IPCClient ipcClient, long clientId, PendingRequests pending, TransportFactory transports,
+                              String location, Consumer<Pipe> onOpen) throws IOException, JsonParseException {
+        LOGGER.debug(String.format("Searching for IPC: %s", location));
+        Pipe pipe = new Pipe(ipcClient, pending, transports.open(location));
+        pipe.location = location;
+        onOpen.accept(pipe);
+
+        JsonObject payload = new JsonObject();
+        payload.addProperty("v", VERSION);
+        payload.addProperty("client_id", Long.toString(clientId));
+        pipe.send(Packet.OpCode.HANDSHAKE, payload, null);
+
+        Packet p = pipe.read(); // this is a valid client at this point
+
+        pipe.build = DiscordBuild.from(p.getJson()
+                .getAsJsonObject("data")
+                .getAsJsonObject("config")
+                .get("api_endpoint").getAsString());
+
+        LOGGER.debug(String.format("Found a valid client (%s) with packet: %s", pipe.build.name(), p.toString()));
+        return pipe;
+    }
+
+    private static void abortQuietly(Pipe pipe) {
+        try {
+            pipe.abort();
+        } catch (IOException ex) {
+            // This isn't really important to applications and better
+            // as debug info
+            LOGGER.debug("Failed to abort an open IPC pipe!", ex);
+        }
+    }
+
+    /**
+     * Opens the transport the Discord client listens on at a location on this system.
+     *
+     * @param location The location of the pipe.
+     * @return The transport.
+     * @throws IOException If there is nothing at the location.
+     * @see TransportFactory#SYSTEM
+     */
+    static Transport openSystemTransport(String location) throws IOException {
         String osName = System.getProperty("os.name").toLowerCase();
 
         if (osName.contains("win")) {
-            return new WindowsPipe(ipcClient, callbacks, location);
+            return new WindowsTransport(location);
         } else if (osName.contains("linux") || osName.contains("mac")) {
-            try {
-                return new UnixPipe(ipcClient, callbacks, location);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            return new UnixTransport(location);
         } else {
             throw new RuntimeException("Unsupported OS: " + osName);
         }
@@ -166,47 +387,194 @@ public abstract class Pipe {
     }
 
     /**
-     * Finds the IPC location in the current system.
+     * Finds the IPC locations to probe in the current system.<p>
+     * <p>
+     * On unix systems this includes the locations used by the Flatpak and Snap
+     * packages of Discord, and only sockets that actually exist are returned.
      *
-     * @param i Index to try getting the IPC at.
-     * @return The IPC location.
+     * @return The IPC locations, in order of preference.
      */
-    private static String getPipeLocation(int i) {
-        if (System.getProperty("os.name").contains("Win"))
-            return "\\\\?\\pipe\\discord-ipc-" + i;
-        String tmppath = null;
-        for (String str : unixPaths) {
-            tmppath = System.getenv(str);
-            if (tmppath != null)
-                break;
+    static List<String> getPipeLocations() {
+        List<String> locations = new ArrayList<>();
+        if (System.getProperty("os.name").contains("Win")) {
+            for (int i = 0; i < 10; i++)
+                locations.add("\\\\?\\pipe\\discord-ipc-" + i);
+            return locations;
         }
+        String tmppath = getRuntimeDirectory().toString();
+        for (int i = 0; i < 10; i++) {
+            for (String sandbox : unixSandboxes) {
+                Path location = Paths.get(tmppath, sandbox, "discord-ipc-" + i);
+                if (Files.exists(location))
+                    locations.add(location.toString());
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Finds the directory the Discord client creates its IPC sockets in.<p>
+     * <p>
+     * On unix systems the {@value #DIR_PROPERTY} system property takes
+     * precedence over the environment when it is set. On Windows, where the
+     * pipes don't live in a directory, this is the temporary directory.
+     *
+     * @return The runtime directory.
+     */
+    static Path getRuntimeDirectory() {
+        if (System.getProperty("os.name").contains("Win"))
+            return Paths.get(System.getProperty("java.io.tmpdir"));
+        String tmppath = System.getProperty(DIR_PROPERTY);
+        for (int k = 0; tmppath == null && k < unixPaths.length; k++)
+            tmppath = System.getenv(unixPaths[k]);
         if (tmppath == null)
             tmppath = "/tmp";
-        return tmppath + "/discord-ipc-" + i;
+        return Paths.get(tmppath);
     }
 
     /**
-     * Sends json with the given {@link Packet.OpCode}.
+     * Sends json with the given {@link Packet.OpCode}.<p>
+     * <p>
+     * The json is encoded when it is written, so it must not be modified afterwards.
      *
      * @param op       The {@link Packet.OpCode} to send data with.
      * @param data     The data to send.
      * @param callback callback for the response
      */
     public void send(Packet.OpCode op, JsonObject data, Callback callback) {
+        long number = nextNumber();
+        String nonce = number == 0 ? generateNonce() : null;
+        data.addProperty("nonce", number == 0 ? nonce : Long.toString(number));
+        send(new Queued(op, data, new Packet(op, data), number, nonce, callback));
+    }
+
+    /**
+     * Sends a payload that is already encoded as UTF-8 JSON, so that it is
+     * never built up as a {@link JsonObject}.<p>
+     * <p>
+     * The segments are joined in order and must make up a JSON object that is
+     * only missing its final {@code "nonce"} property and closing brace, such as
+     * <code>{"cmd":"SET_ACTIVITY","args":{...},</code>. The nonce is added by this pipe.
+     *
+     * @param op       The {@link Packet.OpCode} to send data with.
+     * @param callback callback for the response
+     * @param segments The encoded segments of the payload.
+     */
+    public void send(Packet.OpCode op, Callback callback, byte[]... segments) {
+        long number = nextNumber();
+        String nonce = number == 0 ? generateNonce() : null;
+        send(new Queued(op, segments, number, nonce, callback));
+    }
+
+    /**
+     * Sends a {@link Packet} as it is, without adding a nonce or awaiting an answer,
+     * such as a PONG echoing a PING.
+     *
+     * @param packet The Packet to send.
+     */
+    public void send(Packet packet) {
+        writes.add(new Queued(packet.getOp(), packet.getJson(), packet, 0, null, null), true);
+    }
+
+    /**
+     * Starts a {@link Batch} of requests that are written to this pipe together.
+     *
+     * @return The new, empty Batch.
+     */
+    public Batch batch() {
+        return new Batch();
+    }
+
+    /**
+     * Gets the number of this connection's next request.
+     *
+     * @return The number, or {@code 0} if this pipe uses UUID nonces.
+     */
+    private long nextNumber() {
+        return nextNonce != null ? nextNonce.incrementAndGet() : 0;
+    }
+
+    /**
+     * Queues a frame to be written, tracking its {@link Callback} until Discord answers it.<p>
+     * <p>
+     * The frame is not queued if too many requests are already pending,
+     * and its callback is failed instead. It is also failed if the write fails.
+     *
+     * @param queued The frame to write.
+     */
+    private void send(Queued queued) {
+        if (track(queued))
+            writes.add(queued, true);
+    }
+
+    /**
+     * Sends a CLOSE and waits a little for it, and anything queued before it, to be written.
+     * Nothing is written after it.
+     */
+    void sendClose() {
+        send(Packet.OpCode.CLOSE, new JsonObject(), null);
+        if (!writes.awaitEmpty(CLOSE_TIMEOUT))
+            LOGGER.debug("Gave up waiting for queued frames to be written before closing");
+        writes.close("The pipe to Discord was closed");
+    }
+
+    /**
+     * Adds a frame's request to the pending requests, if it has a {@link Callback} to complete.
+     *
+     * @return {@code false} if there are too many pending requests, and the callback was failed.
+     */
+    boolean track(Queued frame) {
+        Callback callback = frame.callback;
+        if (callback == null || callback.isEmpty())
+            return true;
+        return frame.number != 0 ? pending.add(frame.number, callback) : pending.add(frame.nonce, callback);
+    }
+
+    /**
+     * Removes the request of a frame that won't be written from the pending requests, and fails it.
+     *
+     * @param reason The message to fail the {@link Callback} with.
+     */
+    void untrack(Queued frame, String reason) {
+        Callback callback = frame.callback;
+        if (callback == null || callback.isEmpty())
+            return;
+        Callback failed = frame.number != 0 ? pending.remove(frame.number) : pending.remove(frame.nonce);
+        if (failed == null)
+            return;
+        // this is usually the writer, which must outlive whatever the callback does
         try {
-            String nonce = generateNonce();
-            data.addProperty("nonce", nonce);
-
-            Packet p = new Packet(op, data);
-            if (callback != null && !callback.isEmpty())
-                callbacks.put(nonce, callback);
-            write(p.toBytes());
-            LOGGER.debug(String.format("Sent packet: %s", p.toString()));
-            if (listener != null)
+            failed.fail(reason);
+        } catch (RuntimeException ex) {
+            LOGGER.error("Exception when failing a request: ", ex);
+        }
+    }
+
+    /**
+     * Counts and logs a written frame and hands it to the listener, making a {@link Packet}
+     * of it only if either wants one.
+     *
+     * @param frame  The frame written.
+     * @param frames The buffer it was written from, whose contents are still as written.
+     * @param offset Where the frame starts in {@code frames}.
+     */
+    void sent(Queued frame, ByteBuffer frames, int offset) {
+        metrics.frameSent(frame.op, frame.length);
+        Packet p = frame.packet;
+        IPCListener listener = packetsSent ? this.listener : null;
+        if (p == null && (listener != null || LOGGER.isDebugEnabled())) {
+            // the payload is copied out as it was encoded, rather than encoded again
+            byte[] payload = new byte[frame.length - HEADER_SIZE];
+            frames.get(offset + HEADER_SIZE, payload);
+            p = new Packet(frame.op, payload);
+        }
+        LOGGER.debug("Sent packet: {}", p);
+        if (listener != null) {
+            try {
                 listener.onPacketSent(ipcClient, p);
-        } catch (IOException ex) {
-            LOGGER.error("Encountered an IOException while sending a packet and disconnected!");
-            status = PipeStatus.DISCONNECTED;
+            } catch (RuntimeException ex) {
+                LOGGER.error("Exception when handling a sent packet: ", ex);
+            }
         }
     }
 
@@ -218,9 +586,178 @@ public abstract class Pipe {
      * @throws IOException        If the pipe breaks.
      * @throws JsonParseException If the read thread receives bad data.
      */
-    public abstract Packet read() throws IOException, JsonParseException;
+    public Packet read() throws IOException, JsonParseException {
+        if (this.status == PipeStatus.DISCONNECTED)
+            throw new IOException("Disconnected!");
+
+        if (this.status == PipeStatus.CLOSED)
+            return new Packet(Packet.OpCode.CLOSE, (JsonObject) null);
+
+        Packet p;
+        // a blocking transport only comes up short if its channel was switched to non-blocking mode,
+        // so spin briefly for data that is on its way, then back off to sleeping up to a millisecond
+        for (int idle = 0; (p = poll()) == null; idle++) {
+            if (idle < READ_SPINS)
+                Thread.onSpinWait();
+            else
+                LockSupport.parkNanos(MIN_READ_PARK_NANOS << Math.min(idle - READ_SPINS, MAX_READ_PARK_SHIFT));
+        }
+        return p;
+    }
+
+    /**
+     * Decodes a frame payload into a {@link Packet}.<p>
+     * <p>
+     * The payload bytes are copied out of the provided buffer, so it can be
+     * reused once this returns. They are not parsed here, the
+     * {@link Packet} only builds its JSON tree if someone asks for it.
+     *
+     * @param op      The {@link Packet.OpCode} of the frame.
+     * @param payload The payload of the frame, positioned at its first byte.
+     * @return The decoded {@link Packet}.
+     */
+    Packet decode(Packet.OpCode op, ByteBuffer payload) {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        metrics.frameReceived(op, HEADER_SIZE + bytes.length);
+        return new Packet(op, bytes);
+    }
+
+    /**
+     * Reads as much as is available without blocking, returning a {@link Packet}
+     * once a whole frame has arrived.<p>
+     * <p>
+     * This only reads without blocking if the {@link #getSelectableChannel()
+     * selectable channel} has been put in non-blocking mode, and is meant to be
+     * called when that channel is readable. Otherwise it blocks until a whole frame has arrived.
+     *
+     * @return The next {@link Packet}, or {@code null} if a whole frame has not arrived yet.
+     * @throws IOException        If the pipe breaks.
+     * @throws JsonParseException If the pipe receives bad data.
+     */
+    public Packet poll() throws IOException, JsonParseException {
+        if (pendingOp == null) {
+            // Read the op and length. Both are signed ints
+            if (!fill(header))
+                return null;
+            header.flip();
+
+            int opcode = header.getInt();
+            Packet.OpCode op = Packet.OpCode.fromOrdinal(opcode);
+            if (op == null)
+                throw new IOException("Received a frame with an unknown opcode: " + opcode);
+            int length = header.getInt();
+            if (length < 0)
+                throw new IOException("Received a frame with a negative length: " + length);
+            // refuse before allocating anything, a corrupt header can claim up to 2 GiB
+            if (length > maxFrameSize - HEADER_SIZE)
+                throw new IOException(String.format("Received a frame of %d bytes, more than the maximum of %d",
+                        HEADER_SIZE + (long) length, maxFrameSize));
+
+            payload = payloadBuffer(length);
+            pendingOp = op;
+        }
+        try {
+            if (!fill(payload))
+                return null;
+        } catch (IOException ex) {
+            releasePayload();
+            throw ex;
+        }
+        payload.flip();
+
+        Packet.OpCode op = pendingOp;
+        pendingOp = null;
+        header.clear();
+
+        Packet p = decode(op, payload);
+        releasePayload();
+        LOGGER.debug("Received packet: {}", p);
+        if (this.listener != null)
+            this.listener.onPacketReceived(this.ipcClient, p);
+        return p;
+    }
+
+    /**
+     * Gets a buffer to read a payload into, from the {@link FrameBufferPool} if the
+     * transport prefers direct buffers and the pool has one, or else this pipe's own heap buffer.
+     *
+     * @param length The length of the payload.
+     * @return The cleared buffer, limited to the length.
+     */
+    private ByteBuffer payloadBuffer(int length) {
+        if (direct) {
+            ByteBuffer buf = BUFFERS.acquire(length);
+            if (buf != null) {
+                pooledPayload = true;
+                return buf;
+            }
+        }
+        if (heapPayload == null || heapPayload.capacity() < length)
+            heapPayload = ByteBuffer.allocate(Math.max(length, heapPayload == null ? INITIAL_PAYLOAD_CAPACITY
+                    : (int) Math.min(maxFrameSize, heapPayload.capacity() * 2L)));
+        heapPayload.clear().limit(length);
+        return heapPayload;
+    }
+
+    private void releasePayload() {
+        if (pooledPayload) {
+            BUFFERS.release(payload);
+            pooledPayload = false;
+        }
+        payload = null;
+    }
+
+    /**
+     * Reads from the transport until the provided buffer is full, or until
+     * the transport has nothing more to give without blocking.
+     *
+     * @param buf The buffer to fill up to its limit.
+     * @return {@code true} if the buffer was filled.
+     * @throws IOException If the transport is closed by Discord before the buffer is filled.
+     */
+    private boolean fill(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = this.transport.read(buf);
+            if (read < 0)
+                throw new EOFException("Discord closed the IPC pipe");
+            if (read == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the channel backing this pipe's {@link Transport}, so that it can be
+     * multiplexed with a {@link java.nio.channels.Selector Selector} and read using {@link #poll()}.
+     *
+     * @return The channel, or {@code null} if this pipe can only be read by blocking.
+     */
+    public SelectableChannel getSelectableChannel() {
+        return transport.getSelectableChannel();
+    }
 
-    public abstract void write(byte[] b) throws IOException;
+    /**
+     * Writes bytes straight to the {@link Transport}, skipping the queue every
+     * other frame goes through.
+     *
+     * @param b The bytes to write, which should be whole frames.
+     * @throws IOException If the pipe breaks.
+     */
+    public void write(byte[] b) throws IOException {
+        transport.write(ByteBuffer.wrap(b));
+    }
+
+    /**
+     * Writes frames encoded by this pipe's {@link FrameEncoder}, in a single write if the
+     * {@link Transport} can manage it.
+     *
+     * @param frames The frames to write.
+     * @throws IOException If the pipe breaks.
+     */
+    void write(ByteBuffer frames) throws IOException {
+        transport.write(frames);
+    }
 
     public PipeStatus getStatus() {
         return status;
@@ -231,12 +768,185 @@ public abstract class Pipe {
     }
 
     public void setListener(IPCListener listener) {
+        setListener(listener, true);
+    }
+
+    /**
+     * Sets the listener for this pipe's packets.
+     *
+     * @param listener    The listener, or {@code null}.
+     * @param packetsSent Whether the listener does anything with sent packets. If not,
+     *                    it is never given any, and they are only made to be logged.
+     */
+    public void setListener(IPCListener listener, boolean packetsSent) {
         this.listener = listener;
+        this.packetsSent = packetsSent;
+    }
+
+    /**
+     * Bounds the number of frames waiting to be written to this pipe.
+     *
+     * @param capacity The most frames that may wait, not counting control frames.
+     * @param policy   What to do with frames past that.
+     */
+    public void setWriteQueue(int capacity, WriteOverflowPolicy policy) {
+        writes.configure(capacity, policy);
+    }
+
+    /**
+     * Gets the number of frames waiting to be written to this pipe.
+     *
+     * @return The number of queued frames.
+     */
+    public int getQueuedWrites() {
+        return writes.size();
     }
 
-    public abstract void close() throws IOException;
+    public void close() throws IOException {
+        LOGGER.debug("Closing IPC pipe...");
+        // mark the pipe closed first, Discord hangs up as soon as it reads the CLOSE
+        this.status = PipeStatus.CLOSED;
+        this.sendClose();
+        closeChannel();
+    }
+
+    /**
+     * Closes this pipe without sending a CLOSE, such as when Discord has stopped answering.
+     * Frames still waiting to be written are failed.
+     *
+     * @throws IOException If closing the underlying channel fails.
+     */
+    public void abort() throws IOException {
+        writes.close("The pipe to Discord was aborted");
+        closeChannel();
+    }
+
+    /**
+     * Closes the {@link Transport} this pipe reads from and writes to.
+     *
+     * @throws IOException If closing fails.
+     */
+    void closeChannel() throws IOException {
+        transport.close();
+    }
 
     public DiscordBuild getDiscordBuild() {
         return build;
     }
+
+    /**
+     * Gets the location this pipe was opened at.
+     *
+     * @return The location of this pipe.
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * Requests that are queued up and then handed to their {@link Pipe Pipe's} writer
+     * together, which writes them with as few writes as the pipe can manage.<p>
+     * <p>
+     * Every request still gets its own nonce and {@link Callback}. Requests are only
+     * added to the pending requests when the batch is {@link #flush() flushed}, so
+     * their timeouts start then. A Batch is meant to be filled and flushed by one thread.
+     */
+    public final class Batch {
+        private final List<Queued> queued = new ArrayList<>();
+
+        private Batch() {
+        }
+
+        /**
+         * Queues json with the given {@link Packet.OpCode}.
+         *
+         * @param op       The {@link Packet.OpCode} to send data with.
+         * @param data     The data to send.
+         * @param callback callback for the response
+         * @see Pipe#send(Packet.OpCode, JsonObject, Callback)
+         */
+        public void send(Packet.OpCode op, JsonObject data, Callback callback) {
+            long number = nextNumber();
+            String nonce = number == 0 ? generateNonce() : null;
+            data.addProperty("nonce", number == 0 ? nonce : Long.toString(number));
+            queued.add(new Queued(op, data, new Packet(op, data), number, nonce, callback));
+        }
+
+        /**
+         * Queues a payload that is already encoded as UTF-8 JSON.
+         *
+         * @param op       The {@link Packet.OpCode} to send data with.
+         * @param callback callback for the response
+         * @param segments The encoded segments of the payload.
+         * @see Pipe#send(Packet.OpCode, Callback, byte[]...)
+         */
+        public void send(Packet.OpCode op, Callback callback, byte[]... segments) {
+            long number = nextNumber();
+            String nonce = number == 0 ? generateNonce() : null;
+            queued.add(new Queued(op, segments, number, nonce, callback));
+        }
+
+        /**
+         * Gets the number of requests waiting to be flushed.
+         *
+         * @return The number of queued requests.
+         */
+        public int size() {
+            return queued.size();
+        }
+
+        /**
+         * Queues every request in this batch to be written at once, and empties it.<p>
+         * <p>
+         * Requests that don't fit in the pending requests are failed and left out.
+         * If the write fails, every request in it is failed.
+         */
+        public void flush() {
+            for (Queued q : queued)
+                if (track(q))
+                    writes.add(q, false);
+            queued.clear();
+            writes.drain();
+        }
+    }
+
+    /**
+     * A frame waiting to be written, and what is needed to complete its request.<p>
+     * <p>
+     * Its payload is either json, or encoded segments that the nonce is added to.
+     * Either way it is only encoded once the pipe's writer gets to it.
+     */
+    static final class Queued {
+        final Packet.OpCode op;
+        final JsonObject data;
+        final byte[][] segments;
+        final Packet packet;
+        final long number;
+        final String nonce;
+        final Callback callback;
+        // the length of the frame, header included, or -1 until json is encoded
+        int length;
+
+        Queued(Packet.OpCode op, JsonObject data, Packet packet, long number, String nonce, Callback callback) {
+            this.op = op;
+            this.data = data;
+            this.segments = null;
+            this.packet = packet;
+            this.number = number;
+            this.nonce = nonce;
+            this.callback = callback;
+            this.length = -1;
+        }
+
+        Queued(Packet.OpCode op, byte[][] segments, long number, String nonce, Callback callback) {
+            this.op = op;
+            this.data = null;
+            this.segments = segments;
+            this.packet = null;
+            this.number = number;
+            this.nonce = nonce;
+            this.callback = callback;
+            this.length = FrameEncoder.length(segments, number, nonce);
+        }
+    }
 }
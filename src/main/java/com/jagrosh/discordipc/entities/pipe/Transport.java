@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+
+/**
+ * The raw byte stream between a {@link Pipe} and Discord.<p>
+ * <p>
+ * A Pipe does all framing and request correlation itself, so a transport only
+ * moves bytes. Reads come from one thread at a time and writes from another, so
+ * a transport must allow one read and one write to run concurrently.
+ *
+ * @see TransportFactory
+ */
+public interface Transport extends Closeable {
+
+    /**
+     * Reads as many bytes as are available into the buffer, up to its limit.<p>
+     * <p>
+     * This blocks until at least one byte has been read, unless the transport
+     * has a {@link #getSelectableChannel() selectable channel} that was put in
+     * non-blocking mode, in which case it may read nothing.
+     *
+     * @param dst The buffer to read into.
+     * @return The number of bytes read, or {@code -1} once Discord has closed the stream.
+     * @throws IOException If the transport breaks.
+     */
+    int read(ByteBuffer dst) throws IOException;
+
+    /**
+     * Writes every remaining byte of the buffers, in order, blocking until they are all written.
+     *
+     * @param srcs The buffers to write.
+     * @throws IOException If the transport breaks.
+     */
+    void write(ByteBuffer... srcs) throws IOException;
+
+    /**
+     * Gets the channel backing this transport, so that it can be multiplexed with
+     * a {@link java.nio.channels.Selector Selector} by an {@link com.jagrosh.discordipc.IPCEventLoop IPCEventLoop}.
+     *
+     * @return The channel, or {@code null} if this transport can only be read by blocking.
+     */
+    default SelectableChannel getSelectableChannel() {
+        return null;
+    }
+
+    /**
+     * Gets whether this transport reads into and writes from direct buffers without
+     * copying them, in which case frames go through the shared {@link FrameBufferPool}.
+     *
+     * @return {@code true} if direct buffers are cheaper for this transport than heap buffers.
+     */
+    default boolean prefersDirectBuffers() {
+        return false;
+    }
+
+    /**
+     * Closes this transport, which makes a read blocked on it return or throw.
+     *
+     * @throws IOException If closing fails.
+     */
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Opens {@link Transport Transports} to Discord.<p>
+ * <p>
+ * {@link #SYSTEM} connects to the Discord client over the UNIX domain sockets or
+ * Windows named pipes it listens on. Hosts that reach Discord some other way, or
+ * tests and benchmarks that talk to a stand-in, can supply their own.
+ *
+ * @see com.jagrosh.discordipc.IPCClient#setTransportFactory(TransportFactory)
+ */
+@FunctionalInterface
+public interface TransportFactory {
+    /**
+     * Connects to the Discord client running on this machine.
+     */
+    TransportFactory SYSTEM = Pipe::openSystemTransport;
+
+    /**
+     * Opens a transport to a location, as returned by {@link #getLocations()}.
+     *
+     * @param location The location to connect to.
+     * @return The open transport.
+     * @throws IOException If nothing is listening at the location.
+     */
+    Transport open(String location) throws IOException;
+
+    /**
+     * Gets the locations Discord may be listening at, which are all probed at once.<p>
+     * <p>
+     * By default these are the sockets or pipes of the Discord client.
+     *
+     * @return The locations, in order of preference.
+     */
+    default List<String> getLocations() {
+        return Pipe.getPipeLocations();
+    }
+}
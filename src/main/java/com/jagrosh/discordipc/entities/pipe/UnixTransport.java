@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A {@link Transport} over a UNIX domain socket, as the Discord client listens
+ * on outside of Windows. The socket can be read by an event loop.
+ */
+public class UnixTransport implements Transport {
+    private final SocketChannel channel;
+    private Selector writeSelector;
+
+    /**
+     * Connects to a UNIX domain socket.
+     *
+     * @param location The path of the socket.
+     * @throws IOException If nothing is listening on the socket.
+     */
+    public UnixTransport(String location) throws IOException {
+        this.channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            this.channel.connect(UnixDomainSocketAddress.of(location));
+        } catch (IOException | RuntimeException ex) {
+            this.channel.close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return this.channel.read(dst);
+    }
+
+    @Override
+    public void write(ByteBuffer... srcs) throws IOException {
+        // one gathering write, rather than a write per buffer
+        long remaining = 0;
+        for (ByteBuffer src : srcs)
+            remaining += src.remaining();
+        while (remaining > 0) {
+            long written = this.channel.write(srcs);
+            if (written == 0)
+                awaitWritable();
+            remaining -= written;
+        }
+    }
+
+    @Override
+    public SelectableChannel getSelectableChannel() {
+        return this.channel;
+    }
+
+    @Override
+    public boolean prefersDirectBuffers() {
+        // the channel copies heap buffers into direct memory of its own on every call
+        return true;
+    }
+
+    /**
+     * Waits for room in the socket's send buffer. This only happens once the
+     * channel has been put in non-blocking mode by an event loop.
+     *
+     * @throws IOException If the channel is closed while waiting.
+     */
+    private void awaitWritable() throws IOException {
+        synchronized (this.channel) {
+            if (this.writeSelector == null) {
+                this.writeSelector = Selector.open();
+                this.channel.register(this.writeSelector, SelectionKey.OP_WRITE);
+            }
+            this.writeSelector.select(100);
+            this.writeSelector.selectedKeys().clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+        synchronized (this.channel) {
+            if (this.writeSelector != null)
+                this.writeSelector.close();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Transport} over a Windows named pipe, as the Discord client listens on.<p>
+ * <p>
+ * The pipe is opened for synchronous I/O, where a blocked read would hold up every
+ * write, so reads wait for data to arrive before they start.
+ */
+public class WindowsTransport implements Transport {
+    private final RandomAccessFile file;
+    private volatile boolean closed;
+
+    /**
+     * Opens a named pipe.
+     *
+     * @param location The path of the pipe, such as {@code \\?\pipe\discord-ipc-0}.
+     * @throws IOException If there is no such pipe.
+     */
+    public WindowsTransport(String location) throws IOException {
+        this.file = new RandomAccessFile(location, "rw");
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        while (file.length() == 0) {
+            if (closed)
+                return -1;
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for Discord");
+            }
+        }
+        int read;
+        if (dst.hasArray()) {
+            read = file.read(dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+            if (read > 0)
+                dst.position(dst.position() + read);
+        } else {
+            byte[] b = new byte[dst.remaining()];
+            read = file.read(b);
+            if (read > 0)
+                dst.put(b, 0, read);
+        }
+        return read;
+    }
+
+    @Override
+    public void write(ByteBuffer... srcs) throws IOException {
+        if (srcs.length == 1 && srcs[0].hasArray()) {
+            ByteBuffer src = srcs[0];
+            file.write(src.array(), src.arrayOffset() + src.position(), src.remaining());
+            src.position(src.limit());
+            return;
+        }
+        // the pipe has no gathering write, so join the buffers for a single write
+        int length = 0;
+        for (ByteBuffer src : srcs)
+            length += src.remaining();
+        byte[] joined = new byte[length];
+        int pos = 0;
+        for (ByteBuffer src : srcs) {
+            int n = src.remaining();
+            src.get(joined, pos, n);
+            pos += n;
+        }
+        file.write(joined);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        file.close();
+    }
+}
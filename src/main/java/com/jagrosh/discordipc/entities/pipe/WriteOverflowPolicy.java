@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+/**
+ * What a {@link Pipe} does with a new frame when too many are already waiting
+ * to be written, typically because Discord has stopped reading.<p>
+ * <p>
+ * Either way the {@link com.jagrosh.discordipc.entities.Callback Callback} of the
+ * frame that doesn't make it is failed. Control frames ({@code CLOSE}, {@code PING}
+ * and {@code PONG}) are never turned away.
+ */
+public enum WriteOverflowPolicy {
+    /**
+     * Turns the new frame away.
+     */
+    REJECT,
+
+    /**
+     * Drops the oldest frame still waiting to make room for the new one.
+     */
+    DROP_OLDEST
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import com.jagrosh.discordipc.entities.Packet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The frames waiting to be written to a {@link Pipe}.<p>
+ * <p>
+ * Any number of threads add frames without taking a lock, and a single drain task
+ * writes them on the writer executor, so no two frames are ever interleaved on the
+ * pipe and senders never wait on a full socket buffer. Whatever has queued up by the
+ * time the writer gets to it is encoded into the pipe's {@link FrameEncoder} and goes
+ * out in one write, unless that takes more than the maximum frame size.<p>
+ * <p>
+ * PINGs and PONGs have a lane of their own that is always drained first. Only the
+ * other lane is bounded, following the pipe's {@link WriteOverflowPolicy}. A CLOSE
+ * goes in that lane without counting against it, so that everything queued before it
+ * is written first, and nothing queued after it is.
+ */
+final class WriteQueue {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteQueue.class);
+    // the most frames handed to a single write, which keeps the frame array small
+    private static final int MAX_GATHER = 64;
+
+    private final Pipe pipe;
+    private final Executor writer;
+    // only used by the writer
+    private final FrameEncoder encoder;
+    private final List<Pipe.Queued> encoded = new ArrayList<>();
+    private final Queue<Pipe.Queued> control = new ConcurrentLinkedQueue<>();
+    private final Queue<Pipe.Queued> data = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger dataSize = new AtomicInteger();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile int capacity = Pipe.DEFAULT_WRITE_QUEUE_CAPACITY;
+    private volatile WriteOverflowPolicy policy = WriteOverflowPolicy.REJECT;
+    // set once a CLOSE is queued, after which nothing else is
+    private volatile boolean closing = false;
+    // set once a CLOSE is written, after which nothing else is
+    private volatile boolean closed = false;
+
+    WriteQueue(Pipe pipe, Executor writer, FrameEncoder encoder) {
+        this.pipe = pipe;
+        this.writer = writer;
+        this.encoder = encoder;
+    }
+
+    void configure(int capacity, WriteOverflowPolicy policy) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity must be positive!");
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * Gets the number of frames waiting to be written.
+     *
+     * @return The number of queued frames.
+     */
+    int size() {
+        return dataSize.get() + control.size();
+    }
+
+    /**
+     * Queues a frame, whose request must already be tracked if it has a callback.
+     *
+     * @param frame The frame to write.
+     * @param drain Whether to start the writer, which a caller queueing several frames may leave for later.
+     */
+    void add(Pipe.Queued frame, boolean drain) {
+        if (closed || closing) {
+            pipe.untrack(frame, "The pipe to Discord was closed");
+            return;
+        }
+        // the length of json is only known once the writer encodes it
+        if (frame.length > pipe.maxFrameSize) {
+            refuse(frame);
+            return;
+        }
+        if (frame.op == Packet.OpCode.PING || frame.op == Packet.OpCode.PONG) {
+            control.add(frame);
+        } else if (frame.op == Packet.OpCode.CLOSE) {
+            closing = true;
+            dataSize.incrementAndGet();
+            data.add(frame);
+        } else if (dataSize.incrementAndGet() > capacity && !makeRoom()) {
+            dataSize.decrementAndGet();
+            LOGGER.warn(String.format("Rejecting frame, %d frames are already waiting to be written", capacity));
+            pipe.untrack(frame, "Too many frames are waiting to be written to Discord");
+            return;
+        } else {
+            data.add(frame);
+        }
+        if (drain)
+            drain();
+    }
+
+    /**
+     * Starts the writer, unless it is already running.
+     */
+    void drain() {
+        if (draining.compareAndSet(false, true))
+            writer.execute(this::run);
+    }
+
+    /**
+     * Waits until everything queued so far has been written, or the timeout passes.
+     *
+     * @param timeout How long to wait, in milliseconds.
+     * @return {@code true} if the queue was emptied in time.
+     */
+    boolean awaitEmpty(long timeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        synchronized (this) {
+            while (draining.get() || size() > 0) {
+                long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (left <= 0)
+                    return false;
+                try {
+                    wait(left);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fails every frame still waiting and turns away any added later.
+     *
+     * @param reason The message to fail each frame's callback with.
+     */
+    void close(String reason) {
+        closed = true;
+        failQueued(reason);
+    }
+
+    private boolean makeRoom() {
+        // the oldest frame may be the CLOSE, which is never dropped
+        if (policy != WriteOverflowPolicy.DROP_OLDEST || closing)
+            return false;
+        Pipe.Queued oldest = data.poll();
+        if (oldest == null)
+            return false; // the writer just took everything, so the count will drop shortly
+        dataSize.decrementAndGet();
+        LOGGER.warn(String.format("Dropping the oldest frame, %d frames are already waiting to be written", capacity));
+        pipe.untrack(oldest, "Dropped to make room for newer frames to Discord");
+        return true;
+    }
+
+    private void run() {
+        List<Pipe.Queued> batch = new ArrayList<>();
+        boolean owner = true;
+        try {
+            while (true) {
+                for (Pipe.Queued frame; batch.size() < MAX_GATHER && (frame = control.poll()) != null; )
+                    batch.add(frame);
+                for (Pipe.Queued frame; batch.size() < MAX_GATHER && (frame = data.poll()) != null; ) {
+                    dataSize.decrementAndGet();
+                    batch.add(frame);
+                }
+                if (batch.isEmpty()) {
+                    encoder.release();
+                    owner = false;
+                    release();
+                    // a frame may have been added after the polls without starting the writer
+                    if ((control.isEmpty() && data.isEmpty()) || !draining.compareAndSet(false, true))
+                        return;
+                    owner = true;
+                    continue;
+                }
+                if (!write(batch))
+                    return;
+                batch.clear();
+            }
+        } finally {
+            // however the writer stops, the next frame added has to be able to start another
+            if (owner)
+                release();
+        }
+    }
+
+    private synchronized void release() {
+        draining.set(false);
+        notifyAll();
+    }
+
+    /**
+     * Encodes and writes frames, failing everything on failure.
+     *
+     * @return {@code false} if the writer should stop.
+     */
+    private boolean write(List<Pipe.Queued> batch) {
+        if (closed) {
+            for (Pipe.Queued frame : batch)
+                pipe.untrack(frame, "The pipe to Discord was closed");
+            return true;
+        }
+        int i = 0;
+        try {
+            for (; i < batch.size(); i++) {
+                Pipe.Queued frame = batch.get(i);
+                boolean fits = encoder.append(frame);
+                if (!fits && !encoder.isEmpty()) {
+                    flush();
+                    fits = encoder.append(frame);
+                }
+                if (fits)
+                    encoded.add(frame);
+                else
+                    refuse(frame);
+                if (frame.op == Packet.OpCode.CLOSE) {
+                    // only a frame that raced the CLOSE into the queue can follow it
+                    for (i++; i < batch.size(); i++)
+                        pipe.untrack(batch.get(i), "The pipe to Discord was closed");
+                }
+            }
+            flush();
+        } catch (IOException ex) {
+            if (pipe.status != PipeStatus.CLOSED) {
+                LOGGER.error("Encountered an IOException while sending a packet and disconnected!");
+                pipe.status = PipeStatus.DISCONNECTED;
+            }
+            for (Pipe.Queued frame : encoded)
+                pipe.untrack(frame, "Failed to send the request to Discord");
+            for (; i < batch.size(); i++)
+                pipe.untrack(batch.get(i), "Failed to send the request to Discord");
+            encoded.clear();
+            encoder.release();
+            closed = true;
+            failQueued("Failed to send the request to Discord");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the frames encoded so far in one write.
+     */
+    private void flush() throws IOException {
+        if (encoded.isEmpty())
+            return;
+        ByteBuffer frames = encoder.frames();
+        pipe.write(frames);
+        try {
+            int offset = 0;
+            for (Pipe.Queued frame : encoded) {
+                pipe.sent(frame, frames, offset);
+                offset += frame.length;
+                if (frame.op == Packet.OpCode.CLOSE)
+                    closed = true; // Discord hangs up once it reads the CLOSE
+            }
+        } finally {
+            encoder.clear();
+            encoded.clear();
+        }
+    }
+
+    private void refuse(Pipe.Queued frame) {
+        LOGGER.warn(String.format("Refusing to send a frame of more than the maximum of %d bytes", pipe.maxFrameSize));
+        pipe.untrack(frame, "The request is too large to send to Discord");
+    }
+
+    private void failQueued(String reason) {
+        for (Pipe.Queued frame; (frame = control.poll()) != null; )
+            pipe.untrack(frame, reason);
+        for (Pipe.Queued frame; (frame = data.poll()) != null; ) {
+            dataSize.decrementAndGet();
+            pipe.untrack(frame, reason);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.exceptions;
+
+/**
+ * An exception that the {@link java.util.concurrent.CompletableFuture CompletableFutures}
+ * returned by an {@link com.jagrosh.discordipc.IPCClient IPCClient} complete with when
+ * a request fails.<p>
+ * <p>
+ * This happens when Discord answers the request with an error, when it doesn't answer
+ * in time, when the connection is closed or lost before it answers, or when too many
+ * requests are already awaiting an answer. The message is the same one a
+ * {@link com.jagrosh.discordipc.entities.Callback Callback} would fail with.
+ */
+public class RequestFailedException extends Exception {
+
+    public RequestFailedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc;
+
+import com.jagrosh.discordipc.entities.ReconnectPolicy;
+import com.jagrosh.discordipc.stub.StubDiscordServer;
+import com.jagrosh.discordipc.stub.StubScenario;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks that a PONG slower than the request timeout, but within the heartbeat's,
+ * still answers its PING, rather than the connection being torn down as stalled.
+ */
+public class HeartbeatTest {
+
+    public static void main(String[] args) throws Exception {
+        HeartbeatTest test = new HeartbeatTest();
+        test.testSlowPong();
+        System.out.println("Heartbeat checks passed");
+    }
+
+    public void testSlowPong() throws Exception {
+        try (StubDiscordServer server = StubDiscordServer.start()) {
+            // only connections over the socket follow the server's scenario
+            System.setProperty("discordipc.dir", server.getDirectory().toString());
+            IPCClient client = new IPCClient(1);
+            AtomicInteger disconnects = new AtomicInteger();
+            client.setListener(new IPCListener() {
+                @Override
+                public void onDisconnect(IPCClient client, Throwable t) {
+                    disconnects.incrementAndGet();
+                }
+            });
+            client.setReconnectPolicy(new ReconnectPolicy(100, 100, 0));
+            client.setRequestTimeout(100);
+            client.setHeartbeat(200, 2000);
+            client.connect();
+            try {
+                server.setScenario(new StubScenario.Builder().setLatency(400, 0).build());
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (client.getRoundTripTimes().getCount() < 3) {
+                    check(System.nanoTime() < deadline, "PONGs answered after the request timeout are recorded");
+                    Thread.sleep(20);
+                }
+                check(client.getRoundTripTimes().getLast().toMillis() >= 400, "the round trip includes the server's latency");
+                check(disconnects.get() == 0, "a connection whose PONGs come in time isn't torn down");
+            } finally {
+                server.setScenario(StubScenario.DEFAULT);
+                client.close();
+            }
+        }
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError("Expected that " + what);
+    }
+}
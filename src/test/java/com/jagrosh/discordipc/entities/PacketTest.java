@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Checks that the routing keys a {@link Packet} scans out of its payload are the
+ * same as those of the fully parsed JSON, whether the scan handles the payload
+ * itself or gives up and leaves it to the parse, and that the payload is decoded
+ * for the parse as {@code new String(bytes, UTF_8)} would.
+ */
+public class PacketTest {
+    private static final String[] PAYLOADS = {
+            "{}",
+            " { } ",
+            "{\"cmd\":\"DISPATCH\",\"data\":{\"v\":1},\"evt\":\"READY\",\"nonce\":null}",
+            "{\"cmd\":\"SET_ACTIVITY\",\"data\":{},\"evt\":null,\"nonce\":\"42\"}",
+            " {\n \"nonce\" : \"7\" ,\t\"cmd\" : \"SUBSCRIBE\" }\n",
+            // routing keys nested in the data are not the packet's own
+            "{\"data\":{\"cmd\":\"NESTED\",\"evt\":\"NESTED\",\"nonce\":\"1\"},\"cmd\":\"DISPATCH\"}",
+            "{\"data\":[1,{\"cmd\":\"no\"},\"]\",[[]],null,true,-1.5e3],\"evt\":\"ACTIVITY_JOIN\"}",
+            // strings that look like structure, and escapes in values that aren't routed on
+            "{\"data\":{\"s\":\"}{,:\\\"\\\\\"},\"cmd\":\"A\",\"nonce\":\"8\"}",
+            "{\"data\":\"\\u0063md\",\"evt\":\"E\"}",
+            // escapes the scan gives up on
+            "{\"c\\u006dd\":\"ESCAPED_KEY\"}",
+            "{\"cmd\":\"ESCAPED\\\"VALUE\",\"nonce\":\"9\"}",
+            // values that aren't strings
+            "{\"cmd\":5,\"evt\":true}",
+            "{\"nonce\":123}",
+            "{\"evt\":null,\"cmd\":null}",
+            // nonces that are or aren't plain positive numbers
+            "{\"nonce\":\"0\"}",
+            "{\"nonce\":\"0012\"}",
+            "{\"nonce\":\"123456789012345678\"}",
+            "{\"nonce\":\"1234567890123456789\"}",
+            "{\"nonce\":\"-5\"}",
+            "{\"nonce\":\"\"}",
+            "{\"nonce\":\"7b1c2d44-2b5e-4b7a-9a56-0d8f3c1b9e2a\"}",
+            "{\"evt\":\"\u00e9\ud83d\ude00\",\"nonce\":\"\u0661\"}",
+            // a key that only starts like a routing key
+            "{\"cmds\":\"X\",\"nonces\":\"1\",\"ev\":\"Y\"}",
+    };
+
+    public static void main(String[] args) throws IOException {
+        PacketTest test = new PacketTest();
+        test.testRouting();
+        test.testReader();
+        System.out.println("Packet checks passed");
+    }
+
+    public void testRouting() {
+        for (String payload : PAYLOADS) {
+            JsonObject json = new JsonParser().parse(payload).getAsJsonObject();
+            Packet parsed = new Packet(Packet.OpCode.FRAME, json);
+            Packet scanned = new Packet(Packet.OpCode.FRAME, payload.getBytes(StandardCharsets.UTF_8));
+            check(Objects.equals(parsed.getCommand(), scanned.getCommand()), "the cmd of " + payload + " is " + parsed.getCommand());
+            check(Objects.equals(parsed.getEventName(), scanned.getEventName()), "the evt of " + payload + " is " + parsed.getEventName());
+            check(Objects.equals(parsed.getNonce(), scanned.getNonce()), "the nonce of " + payload + " is " + parsed.getNonce());
+            check(parsed.getNonceAsLong() == scanned.getNonceAsLong(), "the numeric nonce of " + payload + " is " + parsed.getNonceAsLong());
+            check(scanned.getJson().equals(json), "the payload still parses to the same JSON");
+        }
+        Packet numbered = new Packet(Packet.OpCode.FRAME, "{\"nonce\":\"123456789012345678\"}".getBytes(StandardCharsets.UTF_8));
+        check(numbered.getNonceAsLong() == 123456789012345678L, "an 18 digit nonce is read as a number");
+    }
+
+    public void testReader() throws IOException {
+        Random random = new Random(9);
+        for (int n = 0; n < 5000; n++) {
+            // mostly UTF-8 lead and continuation bytes, so that sequences are both whole and broken
+            byte[] bytes = new byte[random.nextInt(40)];
+            for (int i = 0; i < bytes.length; i++)
+                bytes[i] = (byte) (random.nextInt(4) == 0 ? random.nextInt(0x80) : 0x80 + random.nextInt(0x80));
+            Utf8Reader reader = new Utf8Reader(bytes);
+            StringBuilder read = new StringBuilder();
+            char[] buf = new char[4];
+            for (int got; (got = reader.read(buf, 0, 1 + random.nextInt(buf.length))) != -1; )
+                read.append(buf, 0, got);
+            check(new String(bytes, StandardCharsets.UTF_8).contentEquals(read), "bytes decode as new String does");
+        }
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError("Expected that " + what);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks that a {@link ByteRing} much smaller than what is written through it never
+ * loses a wakeup, which would leave the writer parked on a full ring and the reader
+ * on an empty one, and that the bytes come out as they went in.
+ */
+public class ByteRingTest {
+
+    public static void main(String[] args) throws Exception {
+        ByteRingTest test = new ByteRingTest();
+        test.testSmallRing();
+        System.out.println("ByteRing checks passed");
+    }
+
+    public void testSmallRing() throws Exception {
+        // several pairs at once make it likelier that a wakeup lands in the gap it could be lost in
+        for (int round = 0; round < 500; round++) {
+            Pair[] pairs = new Pair[8];
+            for (int i = 0; i < pairs.length; i++)
+                pairs[i] = new Pair(round * pairs.length + i);
+            for (Pair pair : pairs) {
+                pair.writer.join(5000);
+                pair.reader.join(5000);
+                check(!pair.writer.isAlive() && !pair.reader.isAlive(), "round " + round + " finishes without either side parked forever");
+                check(pair.failure.get() == null, "neither side fails");
+                check(Arrays.equals(pair.data, pair.read), "the bytes are read as they were written");
+            }
+        }
+    }
+
+    /**
+     * A writer writing 12800 bytes at once through a 64 byte ring, and a reader reading them 1024 at a time.
+     */
+    private static final class Pair {
+        private final ByteRing ring = new ByteRing(64);
+        private final byte[] data = new byte[12800];
+        private final byte[] read = new byte[data.length];
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final Thread writer;
+        private final Thread reader;
+
+        private Pair(int seed) {
+            for (int i = 0; i < data.length; i++)
+                data[i] = (byte) (i * 31 + seed);
+            writer = start("ByteRingTest-Writer", () -> ring.write(ByteBuffer.wrap(data)));
+            reader = start("ByteRingTest-Reader", () -> {
+                ByteBuffer chunk = ByteBuffer.allocate(1024);
+                for (int total = 0; total < read.length; ) {
+                    chunk.clear().limit(Math.min(chunk.capacity(), read.length - total));
+                    int n = ring.read(chunk);
+                    chunk.flip().get(read, total, n);
+                    total += n;
+                }
+            });
+        }
+
+        private Thread start(String name, IOTask task) {
+            Thread thread = new Thread(() -> {
+                try {
+                    task.run();
+                } catch (IOException ex) {
+                    failure.set(ex);
+                }
+            }, name);
+            thread.setDaemon(true);
+            thread.start();
+            return thread;
+        }
+    }
+
+    private interface IOTask {
+        void run() throws IOException;
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError("Expected that " + what);
+    }
+}
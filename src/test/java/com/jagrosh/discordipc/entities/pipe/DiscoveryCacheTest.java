@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import com.jagrosh.discordipc.entities.DiscordBuild;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**
+ * Checks that a {@link DiscoveryCache} entry only applies to the runtime directory
+ * it was found in, and that a cache file that can't be written leaves nothing behind.
+ */
+public class DiscoveryCacheTest {
+
+    public static void main(String[] args) throws Exception {
+        DiscoveryCacheTest test = new DiscoveryCacheTest();
+        test.testDirectories();
+        test.testFailedStore();
+        System.out.println("DiscoveryCache checks passed");
+    }
+
+    public void testDirectories() throws IOException {
+        Path a = Files.createTempDirectory("discordipc-a");
+        Path b = Files.createTempDirectory("discordipc-b");
+        DiscoveryCache.setPersistent(true);
+        try {
+            System.setProperty("discordipc.dir", a.toString());
+            DiscoveryCache.remember(a.resolve("discord-ipc-0").toString(), DiscordBuild.STABLE);
+            check(DiscoveryCache.get() != null, "the location is remembered");
+
+            System.setProperty("discordipc.dir", b.toString());
+            check(DiscoveryCache.get() == null, "a location found in another directory doesn't apply");
+            DiscoveryCache.remember(b.resolve("discord-ipc-1").toString(), DiscordBuild.PTB);
+            check(DiscoveryCache.get().build == DiscordBuild.PTB, "the location in the new directory is remembered");
+
+            System.setProperty("discordipc.dir", a.toString());
+            DiscoveryCache.Entry entry = DiscoveryCache.get();
+            check(entry != null && entry.build == DiscordBuild.STABLE && entry.location.endsWith("discord-ipc-0"),
+                    "the first directory's location is read back from its file");
+        } finally {
+            DiscoveryCache.clear();
+            DiscoveryCache.setPersistent(false);
+        }
+    }
+
+    public void testFailedStore() throws IOException {
+        Path dir = Files.createTempDirectory("discordipc-c");
+        // a directory with something in it where the file goes can't be replaced
+        Files.createFile(Files.createDirectory(dir.resolve("discordipc-cache")).resolve("x"));
+        System.setProperty("discordipc.dir", dir.toString());
+        DiscoveryCache.setPersistent(true);
+        try {
+            DiscoveryCache.remember(dir.resolve("discord-ipc-0").toString(), DiscordBuild.STABLE);
+            try (Stream<Path> files = Files.list(dir)) {
+                check(files.noneMatch(file -> file.getFileName().toString().endsWith(".tmp")), "no temporary file is left behind");
+            }
+        } finally {
+            DiscoveryCache.setPersistent(false);
+            DiscoveryCache.clear();
+        }
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError("Expected that " + what);
+    }
+}
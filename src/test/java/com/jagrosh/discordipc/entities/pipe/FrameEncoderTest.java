@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.jagrosh.discordipc.IPCClient;
+import com.jagrosh.discordipc.IPCListener;
+import com.jagrosh.discordipc.entities.Packet;
+import com.jagrosh.discordipc.entities.RichPresence;
+import com.jagrosh.discordipc.stub.StubDiscordServer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that {@link FrameEncoder} writes exactly the UTF-8 that {@link String#getBytes}
+ * would, surrogates included, however the buffer has to grow, and that frames sent
+ * over the stub's loopback come back to listeners as they were written.
+ */
+public class FrameEncoderTest {
+
+    public static void main(String[] args) throws Exception {
+        FrameEncoderTest test = new FrameEncoderTest();
+        test.testJson();
+        test.testSegments();
+        test.testLoopback();
+        System.out.println("FrameEncoder checks passed");
+    }
+
+    public void testJson() {
+        Random random = new Random(25);
+        FrameEncoder heap = new FrameEncoder(false, Pipe.DEFAULT_MAX_FRAME_SIZE);
+        FrameEncoder direct = new FrameEncoder(true, Pipe.DEFAULT_MAX_FRAME_SIZE);
+        for (int n = 0; n < 2000; n++) {
+            JsonObject json = new JsonObject();
+            json.addProperty("cmd", text(random));
+            json.add("nothing", JsonNull.INSTANCE);
+            JsonObject args = new JsonObject();
+            args.addProperty("html", "<a href='x'>&amp;</a>=" + text(random));
+            JsonArray array = new JsonArray();
+            array.add(text(random));
+            array.add(random.nextInt());
+            args.add("array", array);
+            json.add("args", args);
+            FrameEncoder encoder = n % 2 == 0 ? heap : direct;
+            Pipe.Queued frame = new Pipe.Queued(Packet.OpCode.FRAME, json, null, 0, null, null);
+            check(encoder.append(frame), "a frame under the maximum size fits");
+            byte[] written = bytes(encoder.frames());
+            encoder.clear();
+            byte[] expected = json.toString().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer header = ByteBuffer.wrap(written).order(ByteOrder.LITTLE_ENDIAN);
+            check(header.getInt() == Packet.OpCode.FRAME.ordinal() && header.getInt() == expected.length,
+                    "the header has the op and the payload's length in bytes");
+            check(Arrays.equals(expected, Arrays.copyOfRange(written, 8, written.length)), "the payload is " + json);
+            check(frame.length == written.length, "the frame's length is set once encoded");
+        }
+        heap.release();
+        direct.release();
+
+        // a pair the first buffer runs out in the middle of is still one code point once it grows
+        for (int pad = 4070; pad < 4100; pad++) {
+            JsonObject json = new JsonObject();
+            json.addProperty("s", "x".repeat(pad) + "😀\ud83d");
+            FrameEncoder encoder = new FrameEncoder(false, Pipe.DEFAULT_MAX_FRAME_SIZE);
+            check(encoder.append(new Pipe.Queued(Packet.OpCode.FRAME, json, null, 0, null, null)), "the frame fits once the buffer grows");
+            byte[] written = bytes(encoder.frames());
+            check(Arrays.equals(json.toString().getBytes(StandardCharsets.UTF_8), Arrays.copyOfRange(written, 8, written.length)),
+                    "surrogates are encoded as String#getBytes does");
+        }
+    }
+
+    public void testSegments() {
+        Random random = new Random(52);
+        FrameEncoder encoder = new FrameEncoder(true, 10000);
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        List<byte[]> expected = new ArrayList<>();
+        int flushes = 0;
+        for (int n = 1; n <= 300; n++) {
+            byte[] segment = ("{\"cmd\":\"SET_ACTIVITY\",\"pad\":\"" + "p".repeat(random.nextInt(400)) + "\",").getBytes(StandardCharsets.UTF_8);
+            long nonce = n * 98765L;
+            Pipe.Queued frame = new Pipe.Queued(Packet.OpCode.FRAME, new byte[][]{segment}, nonce, null, null);
+            int length = frame.length;
+            if (!encoder.append(frame)) {
+                check(!encoder.isEmpty(), "a frame that fits an empty buffer is only refused when the buffer is full");
+                byte[] frames = bytes(encoder.frames());
+                written.write(frames, 0, frames.length);
+                encoder.clear();
+                flushes++;
+                check(encoder.append(frame), "the frame fits once the buffer is emptied");
+            }
+            check(frame.length == length, "the length worked out up front is the length encoded");
+            expected.add((new String(segment, StandardCharsets.UTF_8) + "\"nonce\":\"" + nonce + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] frames = bytes(encoder.frames());
+        written.write(frames, 0, frames.length);
+        encoder.clear();
+        check(flushes > 0, "the frames don't all fit in one buffer");
+
+        ByteBuffer read = ByteBuffer.wrap(written.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        for (byte[] payload : expected) {
+            check(read.getInt() == Packet.OpCode.FRAME.ordinal(), "every frame has its op");
+            byte[] got = new byte[read.getInt()];
+            read.get(got);
+            check(Arrays.equals(payload, got), "every frame is the segments followed by the nonce");
+        }
+        check(!read.hasRemaining(), "nothing follows the last frame");
+
+        Pipe.Queued tooLarge = new Pipe.Queued(Packet.OpCode.FRAME, new byte[][]{new byte[20000]}, 1, null, null);
+        check(!encoder.append(tooLarge) && encoder.isEmpty(), "a frame larger than the maximum is refused");
+        JsonObject json = new JsonObject();
+        json.addProperty("x", "y".repeat(20000));
+        check(!encoder.append(new Pipe.Queued(Packet.OpCode.FRAME, json, null, 0, null, null)) && encoder.isEmpty(),
+                "json larger than the maximum is refused, leaving the buffer empty");
+        encoder.release();
+    }
+
+    public void testLoopback() throws Exception {
+        String[] states = {"plain", "été", "😀 pair", "lone \ud83d high", "lone \ude00 low", "€<&>\"\\"};
+        try (StubDiscordServer server = StubDiscordServer.start()) {
+            IPCClient client = new IPCClient(1);
+            client.setTransportFactory(server.loopback());
+            List<Packet> sent = Collections.synchronizedList(new ArrayList<>());
+            client.setListener(new IPCListener() {
+                @Override
+                public void onPacketSent(IPCClient client, Packet packet) {
+                    if ("SET_ACTIVITY".equals(packet.getCommand()))
+                        sent.add(packet);
+                }
+            });
+            client.connect();
+            try {
+                List<CompletableFuture<Packet>> futures = new ArrayList<>();
+                for (String state : states)
+                    futures.add(client.sendRichPresenceAsync(new RichPresence.Builder().setState(state).build()));
+                for (CompletableFuture<Packet> future : futures)
+                    future.get(5, TimeUnit.SECONDS);
+                check(sent.size() == states.length, "the listener is handed every frame sent");
+                for (int i = 0; i < states.length; i++) {
+                    String expected = new String(states[i].getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+                    String state = sent.get(i).getJson().getAsJsonObject("args").getAsJsonObject("activity").get("state").getAsString();
+                    check(expected.equals(state), "the state sent is " + expected);
+                }
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * Makes a string of ASCII, two and three byte chars, surrogate pairs and lone surrogates.
+     */
+    private static String text(Random random) {
+        StringBuilder text = new StringBuilder();
+        for (int i = random.nextInt(3000); i > 0; i--) {
+            int kind = random.nextInt(10);
+            if (kind < 5)
+                text.append((char) (' ' + random.nextInt(95)));
+            else if (kind < 7)
+                text.append((char) (0x80 + random.nextInt(0x780)));
+            else if (kind < 8)
+                text.appendCodePoint(0x10000 + random.nextInt(0x1000));
+            else if (kind < 9)
+                text.append((char) (0x800 + random.nextInt(0xD000)));
+            else
+                text.append((char) (0xD800 + random.nextInt(0x800)));
+        }
+        return text.toString();
+    }
+
+    private static byte[] bytes(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError("Expected that " + what);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import com.jagrosh.discordipc.IPCClient;
+import com.jagrosh.discordipc.entities.Callback;
+import com.jagrosh.discordipc.entities.Packet;
+import com.jagrosh.discordipc.entities.RichPresence;
+import com.jagrosh.discordipc.stub.StubDiscordServer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks {@link LongCallbackMap} against a plain map, with so few keys in so small
+ * a table that runs collide and wrap around, which is where removing an entry has
+ * to shift the later ones of its run back. Then checks numbered requests end to end
+ * against a {@link StubDiscordServer}.
+ */
+public class LongCallbackMapTest {
+
+    public static void main(String[] args) throws Exception {
+        LongCallbackMapTest test = new LongCallbackMapTest();
+        test.testRemove();
+        test.testExpire();
+        test.testNumberedRequests();
+        System.out.println("LongCallbackMap checks passed");
+    }
+
+    public void testRemove() {
+        Random random = new Random(11);
+        for (int round = 0; round < 2000; round++) {
+            LongCallbackMap map = new LongCallbackMap(4);
+            Map<Long, Callback> model = new HashMap<>();
+            // at most 4 entries keeps the table at 8 slots, and 24 keys make them collide
+            for (int op = 0; op < 200; op++) {
+                long key = 1 + random.nextInt(24);
+                if (model.size() < 4 && random.nextBoolean()) {
+                    Callback callback = new Callback();
+                    map.put(key, callback, 0, Long.MAX_VALUE);
+                    model.put(key, callback);
+                } else {
+                    check(map.remove(key) == model.remove(key), "removing key " + key + " finds what was put");
+                }
+                check(map.size() == model.size(), "the size follows puts and removes");
+            }
+            List<Callback> left = new ArrayList<>();
+            map.drain(left);
+            check(sameCallbacks(left, new ArrayList<>(model.values())), "every entry left is still there");
+        }
+
+        // and through resizes, with sequential nonces as pipes send them
+        LongCallbackMap map = new LongCallbackMap(4);
+        Map<Long, Callback> model = new HashMap<>();
+        for (long key = 1; key <= 5000; key++) {
+            Callback callback = new Callback();
+            map.put(key, callback, 0, Long.MAX_VALUE);
+            model.put(key, callback);
+            if (key % 3 == 0) {
+                long answered = key - random.nextInt(3);
+                check(map.remove(answered) == model.remove(answered), "removing nonce " + answered + " finds what was put");
+            }
+        }
+        for (Map.Entry<Long, Callback> entry : model.entrySet())
+            check(map.remove(entry.getKey()) == entry.getValue(), "nonce " + entry.getKey() + " is still reachable");
+        check(map.size() == 0, "the map is empty once everything is removed");
+    }
+
+    public void testExpire() {
+        Random random = new Random(17);
+        for (int round = 0; round < 2000; round++) {
+            LongCallbackMap map = new LongCallbackMap(4);
+            Map<Long, Callback> model = new HashMap<>();
+            Map<Long, Long> deadlines = new HashMap<>();
+            for (int i = 0; i < 4; i++) {
+                long key = 1 + random.nextInt(24);
+                long deadline = random.nextInt(10);
+                Callback callback = new Callback();
+                map.put(key, callback, 0, deadline);
+                model.put(key, callback);
+                deadlines.put(key, deadline);
+            }
+            long now = random.nextInt(10);
+            List<Callback> expired = new ArrayList<>();
+            long next = map.expire(now, expired);
+            List<Callback> wanted = new ArrayList<>();
+            long wantedNext = Long.MAX_VALUE;
+            for (Map.Entry<Long, Long> entry : deadlines.entrySet()) {
+                if (entry.getValue() <= now)
+                    wanted.add(model.remove(entry.getKey()));
+                else
+                    wantedNext = Math.min(wantedNext, entry.getValue() - now);
+            }
+            check(sameCallbacks(expired, wanted), "exactly the entries past their deadline expire");
+            check(next == wantedNext, "the time until the next deadline is reported");
+            for (Map.Entry<Long, Callback> entry : model.entrySet())
+                check(map.remove(entry.getKey()) == entry.getValue(), "entries that haven't expired are still reachable");
+        }
+    }
+
+    public void testNumberedRequests() throws Exception {
+        try (StubDiscordServer server = StubDiscordServer.start()) {
+            IPCClient client = new IPCClient(1);
+            client.setTransportFactory(server.loopback());
+            client.setNumericNonces(true);
+            client.connect();
+            try {
+                List<CompletableFuture<Packet>> futures = new ArrayList<>();
+                for (int i = 0; i < 200; i++)
+                    futures.add(client.sendRichPresenceAsync(new RichPresence.Builder().setState("Request " + i).build()));
+                for (int i = 0; i < futures.size(); i++) {
+                    Packet answer = futures.get(i).get(5, TimeUnit.SECONDS);
+                    check("SET_ACTIVITY".equals(answer.getCommand()), "request " + i + " is answered");
+                }
+                check(client.getMetrics().getPendingRequests() == 0, "every answered request is removed");
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    private static boolean sameCallbacks(List<Callback> a, List<Callback> b) {
+        if (a.size() != b.size())
+            return false;
+        Map<Callback, Boolean> seen = new IdentityHashMap<>();
+        for (Callback callback : a)
+            seen.put(callback, true);
+        for (Callback callback : b)
+            if (seen.remove(callback) == null)
+                return false;
+        return true;
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError("Expected that " + what);
+    }
+}
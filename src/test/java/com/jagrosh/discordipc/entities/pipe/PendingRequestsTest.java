@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.entities.pipe;
+
+import com.jagrosh.discordipc.IPCClient;
+import com.jagrosh.discordipc.entities.Callback;
+import com.jagrosh.discordipc.entities.Packet;
+import com.jagrosh.discordipc.entities.RichPresence;
+import com.jagrosh.discordipc.exceptions.RequestFailedException;
+import com.jagrosh.discordipc.stub.StubDiscordServer;
+import com.jagrosh.discordipc.stub.StubScenario;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that requests Discord never answers are failed by the timeout sweep,
+ * on their own and through a {@link StubDiscordServer} too slow to answer in time.
+ */
+public class PendingRequestsTest {
+    private static final String TIMED_OUT = "Timed out waiting for a response from Discord";
+
+    public static void main(String[] args) throws Exception {
+        PendingRequestsTest test = new PendingRequestsTest();
+        test.testSweep();
+        test.testSlowServer();
+        System.out.println("PendingRequests checks passed");
+    }
+
+    public void testSweep() throws Exception {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            Map<String, String> failures = new ConcurrentHashMap<>();
+            PendingRequests pending = new PendingRequests(scheduler);
+            pending.setTimeout(50);
+            pending.add("a", failing("a", failures));
+            pending.add(1L, failing("1", failures));
+            Callback answered = failing("2", failures);
+            pending.add(2L, answered);
+            check(pending.remove(2L) == answered, "an answered request is removed");
+            await(() -> failures.size() == 2, 2000);
+            check(TIMED_OUT.equals(failures.get("a")) && TIMED_OUT.equals(failures.get("1")), "both kinds of nonce time out");
+            check(!failures.containsKey("2"), "an answered request never times out");
+            check(pending.size() == 0, "timed out requests no longer count as pending");
+
+            // the sweep stops once nothing is pending, and must start again for new requests
+            Thread.sleep(100);
+            pending.add(3L, failing("3", failures));
+            await(() -> failures.containsKey("3"), 2000);
+
+            // a later deadline is swept by a later sweep, not the one for the earlier deadline
+            pending.add("b", failing("b", failures));
+            pending.setTimeout(1000);
+            pending.add(4L, failing("4", failures));
+            await(() -> failures.containsKey("b"), 500);
+            check(!failures.containsKey("4") && pending.size() == 1, "only the expired request is swept");
+
+            // and an earlier deadline, after the timeout is shortened, isn't left for the later sweep
+            pending.setTimeout(50);
+            pending.add("c", failing("c", failures));
+            await(() -> failures.containsKey("c"), 500);
+            check(!failures.containsKey("4"), "the request with the longer timeout is left pending");
+            await(() -> failures.containsKey("4"), 3000);
+            check(pending.size() == 0, "the later request is swept once it expires");
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    public void testSlowServer() throws Exception {
+        try (StubDiscordServer server = StubDiscordServer.start()) {
+            // only connections over the socket follow the server's scenario
+            System.setProperty("discordipc.dir", server.getDirectory().toString());
+            for (boolean numeric : new boolean[]{false, true}) {
+                IPCClient client = new IPCClient(1);
+                client.setNumericNonces(numeric);
+                client.connect();
+                try {
+                    // the sweep scheduled for the default timeout must not hold up a shorter one
+                    client.sendRichPresenceAsync(new RichPresence.Builder().setState("Answered").build()).get(3, TimeUnit.SECONDS);
+                    server.setScenario(new StubScenario.Builder().setLatency(1000, 0).build());
+                    client.setRequestTimeout(100);
+                    CompletableFuture<Packet> future = client.sendRichPresenceAsync(new RichPresence.Builder().setState("Waiting").build());
+                    try {
+                        future.get(3, TimeUnit.SECONDS);
+                        check(false, "a request answered too late fails");
+                    } catch (ExecutionException ex) {
+                        check(ex.getCause() instanceof RequestFailedException && TIMED_OUT.equals(ex.getCause().getMessage()),
+                                "a request answered too late fails with a timeout");
+                    }
+                    check(client.getMetrics().getPendingRequests() == 0, "the timed out request is no longer pending");
+                } finally {
+                    server.setScenario(StubScenario.DEFAULT);
+                    client.close();
+                }
+            }
+        }
+    }
+
+    private static Callback failing(String name, Map<String, String> failures) {
+        return new Callback(p -> failures.put(name, "answered"), message -> failures.put(name, message));
+    }
+
+    private static void await(Condition condition, long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (!condition.holds()) {
+            check(System.currentTimeMillis() < deadline, "timed out requests are failed in time");
+            Thread.sleep(5);
+        }
+    }
+
+    private static void check(boolean ok, String what) {
+        if (!ok)
+            throw new AssertionError("Expected that " + what);
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+}
@@ -0,0 +1,667 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.stub;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.jagrosh.discordipc.entities.pipe.LoopbackTransport;
+import com.jagrosh.discordipc.entities.pipe.Transport;
+import com.jagrosh.discordipc.entities.pipe.TransportFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in for the Discord client that speaks just enough of the IPC protocol
+ * for an {@link com.jagrosh.discordipc.IPCClient IPCClient} to connect to it.<p>
+ * <p>
+ * The server listens on {@code discord-ipc-N} in its own directory, answers the
+ * handshake with a READY dispatch and acknowledges every command by its nonce.
+ * Clients are pointed at it by setting the {@code discordipc.dir} system property
+ * (or {@code XDG_RUNTIME_DIR} for another process) to {@link #getDirectory()}.<p>
+ * <p>
+ * Events are sent with {@link #dispatch(String, JsonObject)} to every client
+ * subscribed to them. A {@link StubScenario} makes the server slow, answer
+ * in pieces, rate limit or drop connections, and can be changed at any time.<p>
+ * <p>
+ * Clients can also reach the server in memory instead, through the
+ * {@link #loopback() loopback} {@link TransportFactory}.<p>
+ * <p>
+ * All connections are served from one thread, so the server itself adds
+ * next to nothing to the thread count of whatever is being measured.
+ */
+public final class StubDiscordServer implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StubDiscordServer.class);
+    public static final String STABLE_ENDPOINT = "//discord.com/api";
+    /**
+     * The {@code code} of the ERROR commands are answered with when rate limited.
+     */
+    public static final int RATE_LIMITED = 5005;
+    /**
+     * The only location of the {@link #loopback() loopback} transports.
+     */
+    public static final String LOOPBACK = "loopback";
+
+    private final Path directory;
+    private final Path socket;
+    private final String apiEndpoint;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final Thread thread;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+    // work handed to the server thread by others, and frames held back by the scenario's latency
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Delayed> delayed = new PriorityQueue<>();
+    private volatile StubScenario scenario = StubScenario.DEFAULT;
+    private volatile boolean running = true;
+
+    /**
+     * Starts a server on {@code discord-ipc-N} in the provided directory.
+     *
+     * @param directory   The directory to create the socket in.
+     * @param slot        The N in {@code discord-ipc-N}.
+     * @param apiEndpoint The {@code config.api_endpoint} to report in READY, which decides the client build.
+     * @throws IOException If the socket could not be bound.
+     */
+    public StubDiscordServer(Path directory, int slot, String apiEndpoint) throws IOException {
+        this.directory = directory;
+        this.socket = directory.resolve("discord-ipc-" + slot);
+        this.apiEndpoint = apiEndpoint;
+        Files.deleteIfExists(socket);
+        this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        this.server.bind(UnixDomainSocketAddress.of(socket));
+        this.server.configureBlocking(false);
+        this.selector = Selector.open();
+        this.server.register(selector, SelectionKey.OP_ACCEPT);
+        this.thread = new Thread(this::run, "StubDiscordServer-" + slot);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Starts a stable build server on {@code discord-ipc-0} in a new temporary directory.
+     *
+     * @return The started server.
+     * @throws IOException If the socket could not be bound.
+     */
+    public static StubDiscordServer start() throws IOException {
+        return new StubDiscordServer(Files.createTempDirectory("discord-ipc"), 0, STABLE_ENDPOINT);
+    }
+
+    /**
+     * Gets the directory the server's socket is in.
+     *
+     * @return The socket directory.
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Gets the number of clients currently connected.
+     *
+     * @return The number of open connections.
+     */
+    public int getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * Gets the number of commands received, whatever they were answered with.
+     *
+     * @return The number of commands.
+     */
+    public long getCommandCount() {
+        return commands.get();
+    }
+
+    /**
+     * Gets the number of commands answered with a rate limit ERROR.
+     *
+     * @return The number of rate limited commands.
+     */
+    public long getRateLimitedCount() {
+        return rateLimited.get();
+    }
+
+    /**
+     * Gets the number of connections dropped by the server, by its scenario or
+     * {@link #disconnectAll()}.
+     *
+     * @return The number of dropped connections.
+     */
+    public long getDisconnectCount() {
+        return disconnects.get();
+    }
+
+    /**
+     * Sets how the server misbehaves from now on, for new and open connections alike.
+     *
+     * @param scenario The {@link StubScenario}.
+     */
+    public void setScenario(StubScenario scenario) {
+        this.scenario = scenario == null ? StubScenario.DEFAULT : scenario;
+    }
+
+    public StubScenario getScenario() {
+        return scenario;
+    }
+
+    /**
+     * Sends a DISPATCH of an event to every client subscribed to it.
+     *
+     * @param evt  The name of the event, such as {@code ACTIVITY_JOIN}.
+     * @param data The event's data.
+     */
+    public void dispatch(String evt, JsonObject data) {
+        JsonObject json = new JsonObject();
+        json.addProperty("cmd", "DISPATCH");
+        json.add("data", data);
+        json.addProperty("evt", evt);
+        json.add("nonce", JsonNull.INSTANCE);
+        byte[] payload = json.toString().getBytes(StandardCharsets.UTF_8);
+        submit(() -> {
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection != null && connection.subscriptions.contains(evt))
+                    connection.send(key, 1, payload);
+            }
+        });
+    }
+
+    /**
+     * Drops every connection without a CLOSE, as if Discord had crashed.
+     */
+    public void disconnectAll() {
+        submit(() -> {
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection != null && !connection.closed) {
+                    disconnects.incrementAndGet();
+                    connection.close(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * Gets a {@link TransportFactory} whose transports lead to this server in memory,
+     * through a {@link LoopbackTransport}, rather than over its socket.<p>
+     * <p>
+     * Each of these connections is served by a thread of its own, which answers the
+     * handshake, commands and PINGs as usual, but doesn't follow the {@link StubScenario}
+     * or get {@link #dispatch(String, JsonObject) dispatched} events.
+     *
+     * @return The factory.
+     */
+    public TransportFactory loopback() {
+        return new TransportFactory() {
+            @Override
+            public Transport open(String location) {
+                LoopbackTransport transport = new LoopbackTransport();
+                Thread thread = new Thread(() -> serve(transport.getPeer()), "StubDiscordServer-Loopback");
+                thread.setDaemon(true);
+                thread.start();
+                return transport;
+            }
+
+            @Override
+            public List<String> getLocations() {
+                return List.of(LOOPBACK);
+            }
+        };
+    }
+
+    private void serve(LoopbackTransport transport) {
+        connections.incrementAndGet();
+        ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            while (running) {
+                header.clear();
+                if (!readFully(transport, header))
+                    return;
+                header.flip();
+                int op = header.getInt();
+                ByteBuffer payload = ByteBuffer.allocate(header.getInt());
+                if (!readFully(transport, payload))
+                    return;
+                byte[] data = payload.array();
+                switch (op) {
+                    case 0: // HANDSHAKE
+                        transport.write(frame(1, readyDispatch().toString().getBytes(StandardCharsets.UTF_8)));
+                        break;
+                    case 1: // FRAME
+                        commands.incrementAndGet();
+                        JsonObject command = new JsonParser().parse(new String(data, StandardCharsets.UTF_8)).getAsJsonObject();
+                        transport.write(frame(1, ack(command).toString().getBytes(StandardCharsets.UTF_8)));
+                        break;
+                    case 3: // PING
+                        transport.write(frame(4, data));
+                        break;
+                    default: // CLOSE or garbage
+                        return;
+                }
+            }
+        } catch (IOException ex) {
+            // the client went away
+        } finally {
+            transport.close();
+            connections.decrementAndGet();
+        }
+    }
+
+    private static boolean readFully(Transport transport, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (transport.read(buf) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    private void submit(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        Files.deleteIfExists(socket);
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                long wait = releaseDelayed();
+                if (wait == 0)
+                    selector.select();
+                else
+                    selector.select(wait);
+                Runnable task;
+                while ((task = tasks.poll()) != null)
+                    task.run();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (key.isAcceptable())
+                            accept();
+                        else if (key.isValid())
+                            ((Connection) key.attachment()).ready(key);
+                    } catch (IOException ex) {
+                        if (key.attachment() != null)
+                            ((Connection) key.attachment()).close(key);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Stub Discord server stopped serving", ex);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException ignored) {
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Hands delayed frames that are due to their connections.
+     *
+     * @return The milliseconds until the next one is due, or {@code 0} if there is none.
+     */
+    private long releaseDelayed() {
+        long now = System.nanoTime();
+        Delayed next;
+        while ((next = delayed.peek()) != null && next.due - now <= 0) {
+            delayed.poll();
+            if (next.key.isValid())
+                next.connection.write(next.key, next.frame);
+        }
+        return next == null ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(next.due - now));
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+            connections.incrementAndGet();
+        }
+    }
+
+    private JsonObject readyDispatch() {
+        JsonObject config = new JsonObject();
+        config.addProperty("cdn_host", "cdn.discordapp.com");
+        config.addProperty("api_endpoint", apiEndpoint);
+        config.addProperty("environment", "production");
+
+        JsonObject user = new JsonObject();
+        user.addProperty("id", "1");
+        user.addProperty("username", "stub");
+        user.addProperty("discriminator", "0001");
+
+        JsonObject data = new JsonObject();
+        data.addProperty("v", 1);
+        data.add("config", config);
+        data.add("user", user);
+
+        JsonObject json = new JsonObject();
+        json.addProperty("cmd", "DISPATCH");
+        json.add("data", data);
+        json.addProperty("evt", "READY");
+        json.add("nonce", JsonNull.INSTANCE);
+        return json;
+    }
+
+    private static JsonObject ack(JsonObject command) {
+        JsonObject json = new JsonObject();
+        json.add("cmd", command.get("cmd"));
+        json.add("data", new JsonObject());
+        json.add("evt", JsonNull.INSTANCE);
+        JsonElement nonce = command.get("nonce");
+        json.add("nonce", nonce == null ? JsonNull.INSTANCE : nonce);
+        return json;
+    }
+
+    private static JsonObject rateLimitError(JsonObject command) {
+        JsonObject data = new JsonObject();
+        data.addProperty("code", RATE_LIMITED);
+        data.addProperty("message", "You are being rate limited.");
+
+        JsonObject json = new JsonObject();
+        json.add("cmd", command.get("cmd"));
+        json.add("data", data);
+        json.addProperty("evt", "ERROR");
+        JsonElement nonce = command.get("nonce");
+        json.add("nonce", nonce == null ? JsonNull.INSTANCE : nonce);
+        return json;
+    }
+
+    private static ByteBuffer frame(int op, byte[] payload) {
+        ByteBuffer buf = ByteBuffer.allocate(8 + payload.length).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(op).putInt(payload.length).put(payload).flip();
+        return buf;
+    }
+
+    /**
+     * A frame held back until it is due.
+     */
+    private static final class Delayed implements Comparable<Delayed> {
+        private final long due;
+        private final long sequence;
+        private final SelectionKey key;
+        private final Connection connection;
+        private final ByteBuffer frame;
+
+        private Delayed(long due, long sequence, SelectionKey key, Connection connection, ByteBuffer frame) {
+            this.due = due;
+            this.sequence = sequence;
+            this.key = key;
+            this.connection = connection;
+            this.frame = frame;
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            int c = Long.compare(due - other.due, 0);
+            return c != 0 ? c : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final class Connection {
+        private final SocketChannel channel;
+        private final ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+        private final Set<String> subscriptions = new HashSet<>();
+        private ByteBuffer payload;
+        private int op;
+        private boolean closed;
+        private int commandCount;
+        private long lastDue;
+        private long sequence;
+        // token bucket for the scenario's rate limit, in commands
+        private double tokens = -1;
+        private long refilledAt;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ready(SelectionKey key) throws IOException {
+            if (key.isWritable())
+                flush(key);
+            if (key.isValid() && key.isReadable())
+                read(key);
+        }
+
+        private void read(SelectionKey key) throws IOException {
+            int budget = scenario.getMaxReadChunk();
+            if (budget == 0)
+                budget = Integer.MAX_VALUE;
+            while (budget > 0) {
+                if (payload == null) {
+                    int read = read(header, budget);
+                    if (read < 0) {
+                        close(key);
+                        return;
+                    }
+                    budget -= read;
+                    if (header.hasRemaining())
+                        return;
+                    header.flip();
+                    op = header.getInt();
+                    payload = ByteBuffer.allocate(header.getInt());
+                    header.clear();
+                }
+                int read = read(payload, budget);
+                if (read < 0) {
+                    close(key);
+                    return;
+                }
+                budget -= read;
+                if (payload.hasRemaining())
+                    return;
+                byte[] data = payload.array();
+                payload = null;
+                if (!handle(key, op, data))
+                    return;
+            }
+        }
+
+        /**
+         * Reads into a buffer, but no more than the provided number of bytes.
+         */
+        private int read(ByteBuffer buf, int max) throws IOException {
+            if (buf.remaining() <= max)
+                return channel.read(buf);
+            int limit = buf.limit();
+            buf.limit(buf.position() + max);
+            try {
+                return channel.read(buf);
+            } finally {
+                buf.limit(limit);
+            }
+        }
+
+        private boolean handle(SelectionKey key, int op, byte[] data) throws IOException {
+            switch (op) {
+                case 0: // HANDSHAKE
+                    send(key, 1, readyDispatch());
+                    return true;
+                case 1: // FRAME
+                    return command(key, new JsonParser().parse(new String(data, StandardCharsets.UTF_8)).getAsJsonObject());
+                case 3: // PING
+                    send(key, 4, data);
+                    return true;
+                default: // CLOSE or garbage
+                    close(key);
+                    return false;
+            }
+        }
+
+        /**
+         * Answers a command as the scenario says, keeping track of subscriptions.
+         *
+         * @return {@code false} if the connection was dropped instead.
+         */
+        private boolean command(SelectionKey key, JsonObject command) {
+            commands.incrementAndGet();
+            commandCount++;
+            StubScenario scenario = StubDiscordServer.this.scenario;
+            if (scenario.getDisconnectAfter() > 0 && commandCount >= scenario.getDisconnectAfter()) {
+                disconnects.incrementAndGet();
+                close(key);
+                return false;
+            }
+            if (!takeToken(scenario.getRateLimit())) {
+                rateLimited.incrementAndGet();
+                send(key, 1, rateLimitError(command));
+                return true;
+            }
+            JsonElement cmd = command.get("cmd");
+            JsonElement evt = command.get("evt");
+            if (cmd != null && evt != null && !evt.isJsonNull()) {
+                if ("SUBSCRIBE".equals(cmd.getAsString()))
+                    subscriptions.add(evt.getAsString());
+                else if ("UNSUBSCRIBE".equals(cmd.getAsString()))
+                    subscriptions.remove(evt.getAsString());
+            }
+            send(key, 1, ack(command));
+            return true;
+        }
+
+        private boolean takeToken(int rate) {
+            if (rate == 0)
+                return true;
+            long now = System.nanoTime();
+            if (tokens < 0)
+                tokens = rate;
+            else
+                tokens = Math.min(rate, tokens + (now - refilledAt) * rate / 1e9);
+            refilledAt = now;
+            if (tokens < 1)
+                return false;
+            tokens--;
+            return true;
+        }
+
+        private void send(SelectionKey key, int op, JsonObject json) {
+            send(key, op, json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Sends a frame, or holds it back if the scenario has latency.
+         * Frames still leave in the order they were sent, whatever the jitter.
+         */
+        private void send(SelectionKey key, int op, byte[] payload) {
+            ByteBuffer frame = frame(op, payload);
+            StubScenario scenario = StubDiscordServer.this.scenario;
+            if (scenario.getLatency() == 0 && scenario.getJitter() == 0 && delayed.isEmpty()) {
+                write(key, frame);
+                return;
+            }
+            long delay = scenario.getLatency() + (scenario.getJitter() == 0 ? 0 : ThreadLocalRandom.current().nextLong(scenario.getJitter() + 1));
+            long due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            if (due - lastDue < 0)
+                due = lastDue;
+            lastDue = due;
+            delayed.add(new Delayed(due, sequence++, key, this, frame));
+        }
+
+        private void write(SelectionKey key, ByteBuffer frame) {
+            outbound.add(frame);
+            try {
+                flush(key);
+            } catch (IOException ex) {
+                close(key);
+            }
+        }
+
+        private void flush(SelectionKey key) throws IOException {
+            int chunk = scenario.getMaxWriteChunk();
+            ByteBuffer buf;
+            while ((buf = outbound.peek()) != null) {
+                if (chunk > 0 && buf.remaining() > chunk) {
+                    // write one piece, and the rest once the selector comes back around
+                    int written = channel.write(buf.slice().limit(chunk));
+                    buf.position(buf.position() + written);
+                    break;
+                }
+                channel.write(buf);
+                if (buf.hasRemaining())
+                    break;
+                outbound.poll();
+            }
+            if (!closed)
+                key.interestOps(outbound.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        private void close(SelectionKey key) {
+            if (closed)
+                return;
+            closed = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            connections.decrementAndGet();
+        }
+    }
+}
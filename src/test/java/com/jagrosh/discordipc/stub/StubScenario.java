@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 John Grosh (john.a.grosh@gmail.com).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.jagrosh.discordipc.stub;
+
+/**
+ * Describes how a {@link StubDiscordServer} misbehaves, so that clients can be
+ * measured against a Discord that is slow, rate limits them or goes away.<p>
+ * <p>
+ * Scenarios are made with a {@link Builder}. {@link #DEFAULT} answers everything
+ * at once, in full, and never errors.
+ *
+ * @see StubDiscordServer#setScenario(StubScenario)
+ */
+public final class StubScenario {
+    /**
+     * Answers everything at once, in full, and never errors.
+     */
+    public static final StubScenario DEFAULT = new Builder().build();
+
+    private final long latency;
+    private final long jitter;
+    private final int maxReadChunk;
+    private final int maxWriteChunk;
+    private final int rateLimit;
+    private final int disconnectAfter;
+
+    private StubScenario(Builder builder) {
+        this.latency = builder.latency;
+        this.jitter = builder.jitter;
+        this.maxReadChunk = builder.maxReadChunk;
+        this.maxWriteChunk = builder.maxWriteChunk;
+        this.rateLimit = builder.rateLimit;
+        this.disconnectAfter = builder.disconnectAfter;
+    }
+
+    public long getLatency() {
+        return latency;
+    }
+
+    public long getJitter() {
+        return jitter;
+    }
+
+    public int getMaxReadChunk() {
+        return maxReadChunk;
+    }
+
+    public int getMaxWriteChunk() {
+        return maxWriteChunk;
+    }
+
+    public int getRateLimit() {
+        return rateLimit;
+    }
+
+    public int getDisconnectAfter() {
+        return disconnectAfter;
+    }
+
+    /**
+     * A chainable builder of {@link StubScenario StubScenarios}, where every setting
+     * starts out off.
+     */
+    public static final class Builder {
+        private long latency;
+        private long jitter;
+        private int maxReadChunk;
+        private int maxWriteChunk;
+        private int rateLimit;
+        private int disconnectAfter;
+
+        /**
+         * Delays every frame the server sends, in the order they were sent.
+         *
+         * @param latency The delay in milliseconds.
+         * @param jitter  Up to how many milliseconds are randomly added to each delay.
+         * @return This Builder.
+         */
+        public Builder setLatency(long latency, long jitter) {
+            if (latency < 0 || jitter < 0)
+                throw new IllegalArgumentException("Latency must not be negative!");
+            this.latency = latency;
+            this.jitter = jitter;
+            return this;
+        }
+
+        /**
+         * Reads at most this many bytes each time a connection is readable, so that
+         * clients writing a lot find the socket full and have to finish their writes later.
+         *
+         * @param maxReadChunk The most bytes per read, or {@code 0} for no limit.
+         * @return This Builder.
+         */
+        public Builder setMaxReadChunk(int maxReadChunk) {
+            if (maxReadChunk < 0)
+                throw new IllegalArgumentException("Chunk size must not be negative!");
+            this.maxReadChunk = maxReadChunk;
+            return this;
+        }
+
+        /**
+         * Writes frames in pieces of at most this many bytes, going back to the
+         * selector between pieces, so that clients read frames in parts.
+         *
+         * @param maxWriteChunk The most bytes per write, or {@code 0} for no limit.
+         * @return This Builder.
+         */
+        public Builder setMaxWriteChunk(int maxWriteChunk) {
+            if (maxWriteChunk < 0)
+                throw new IllegalArgumentException("Chunk size must not be negative!");
+            this.maxWriteChunk = maxWriteChunk;
+            return this;
+        }
+
+        /**
+         * Answers commands beyond this many per second on a connection with an ERROR,
+         * as Discord does when rate limiting. Up to a second's worth may come in a burst.
+         *
+         * @param rateLimit The commands allowed per second, or {@code 0} for no limit.
+         * @return This Builder.
+         */
+        public Builder setRateLimit(int rateLimit) {
+            if (rateLimit < 0)
+                throw new IllegalArgumentException("Rate limit must not be negative!");
+            this.rateLimit = rateLimit;
+            return this;
+        }
+
+        /**
+         * Drops a connection without a CLOSE once it has sent this many commands,
+         * instead of answering the last one.
+         *
+         * @param disconnectAfter The commands per connection, or {@code 0} to never disconnect.
+         * @return This Builder.
+         */
+        public Builder setDisconnectAfter(int disconnectAfter) {
+            if (disconnectAfter < 0)
+                throw new IllegalArgumentException("Command count must not be negative!");
+            this.disconnectAfter = disconnectAfter;
+            return this;
+        }
+
+        public StubScenario build() {
+            return new StubScenario(this);
+        }
+    }
+}